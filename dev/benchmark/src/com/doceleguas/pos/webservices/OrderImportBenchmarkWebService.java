@@ -0,0 +1,405 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.base.weld.WeldUtils;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.service.json.JsonConstants;
+import org.openbravo.service.web.WebService;
+
+import com.doceleguas.pos.webservices.orderload.OcreOrderLoadOrchestrator;
+import com.doceleguas.pos.webservices.orderload.OrderFlowType;
+import com.doceleguas.pos.webservices.orderload.OrderFlowUtils;
+import com.doceleguas.pos.webservices.orderload.impl.CoreOrderPersistenceAdapter;
+import com.doceleguas.pos.webservices.orderload.spi.ExternalEnvelopeTransform;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Measures the order import hot path on a development or staging instance. Synthetic tickets of
+ * the requested shape are imported one after the other in the request thread, through
+ * {@link OcreOrderLoadOrchestrator#importEnvelope} or, with {@code "target":"persistence"},
+ * through {@link CoreOrderPersistenceAdapter#persistTransformedEnvelope} alone. Every ticket is
+ * rolled back, and a request asking for {@code "commit":true} is refused. One run at a time: a
+ * request arriving while another one runs gets 409.
+ *
+ * The service is not part of this module: its source lives out of {@code src}, so it is not in the
+ * module build. A development module compiles and registers it, so it is never reachable on a
+ * production instance.
+ *
+ * <pre>
+ * POST {"posTerminal":"POS001","products":["P1","P2"],"paymentKind":"OBPOS_payment.cash",
+ *       "lines":5,"promotionsPerLine":0,"discountRule":..,"payments":1,"taxRate":21,
+ *       "flow":"STANDARD_SALE","warmup":20,"iterations":200}
+ * </pre>
+ *
+ * {@code flow} is one of {@code STANDARD_SALE}, {@code RETURN}, {@code QUOTATION} and
+ * {@code LAYAWAY}. Products are used in turn for the lines. The terminal, products, payment
+ * method and promotion must exist in the database; see
+ * {@code dev/benchmark/benchmark-OCOrder-import.md}.
+ *
+ * The response has the throughput, latency percentiles in milliseconds and the bytes allocated
+ * per ticket by the request thread, measured after the warmup tickets.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.benchmark.enabled (default false, the service answers 403)</li>
+ * </ul>
+ */
+public class OrderImportBenchmarkWebService implements WebService {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final boolean ENABLED = OcwsProperties.getBoolean("ocws.benchmark.enabled",
+      false);
+  private static final int MAX_ITERATIONS = 100000;
+  private static final BigDecimal UNIT_PRICE = new BigDecimal("10.00");
+  private static final BigDecimal PROMOTION_AMOUNT = new BigDecimal("0.10");
+  private static final AtomicBoolean RUNNING = new AtomicBoolean();
+
+  @Override
+  public void doPost(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    if (!ENABLED) {
+      writeError(response, HttpServletResponse.SC_FORBIDDEN,
+          "Benchmark disabled, set ocws.benchmark.enabled=true");
+      return;
+    }
+    Scenario scenario;
+    try {
+      scenario = new Scenario(readBody(request));
+    } catch (JSONException | IllegalArgumentException e) {
+      writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    if (!RUNNING.compareAndSet(false, true)) {
+      writeError(response, HttpServletResponse.SC_CONFLICT, "A benchmark is already running");
+      return;
+    }
+    try {
+      run(scenario, response);
+    } finally {
+      RUNNING.set(false);
+    }
+  }
+
+  private static void run(Scenario scenario, HttpServletResponse response) throws Exception {
+    for (int i = 0; i < scenario.warmup; i++) {
+      runTicket(scenario);
+    }
+    long[] latencies = new long[scenario.iterations];
+    int failures = 0;
+    String firstError = null;
+    long allocated = getAllocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < scenario.iterations; i++) {
+      long ticketStart = System.nanoTime();
+      String error = runTicket(scenario);
+      latencies[i] = System.nanoTime() - ticketStart;
+      if (error != null) {
+        failures++;
+        firstError = firstError != null ? firstError : error;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    allocated = allocated >= 0 ? getAllocatedBytes() - allocated : -1;
+
+    Arrays.sort(latencies);
+    JSONObject latency = new JSONObject();
+    latency.put("mean", toMillis(Arrays.stream(latencies).sum() / latencies.length));
+    latency.put("p50", toMillis(percentile(latencies, 0.50)));
+    latency.put("p90", toMillis(percentile(latencies, 0.90)));
+    latency.put("p99", toMillis(percentile(latencies, 0.99)));
+    latency.put("max", toMillis(latencies[latencies.length - 1]));
+    JSONObject result = new JSONObject();
+    result.put("scenario", scenario.toJson());
+    result.put("iterations", scenario.iterations);
+    result.put("failures", failures);
+    result.put("firstError", firstError);
+    result.put("opsPerSecond", round(scenario.iterations * 1e9 / elapsed));
+    result.put("latencyMillis", latency);
+    result.put("allocatedBytesPerOp", allocated >= 0 ? allocated / scenario.iterations : -1);
+    log.info("Order import benchmark {}: {}", scenario.toJson(), result);
+
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    PrintWriter out = response.getWriter();
+    out.print(result.toString());
+    out.flush();
+  }
+
+  @Override
+  public void doGet(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+        "Use POST with the scenario in the body.");
+  }
+
+  @Override
+  public void doDelete(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed");
+  }
+
+  @Override
+  public void doPut(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed");
+  }
+
+  /** Imports one synthetic ticket and rolls it back. Returns the error, if any. */
+  private static String runTicket(Scenario scenario) {
+    try {
+      JSONObject envelope = scenario.newEnvelope();
+      JSONObject result;
+      if (scenario.persistenceOnly) {
+        JSONObject prepared = WeldUtils
+            .getInstanceFromStaticBeanManager(ExternalEnvelopeTransform.class)
+            .onInboundEnvelope(envelope);
+        JSONObject order = prepared.getJSONArray("data").getJSONObject(0);
+        result = WeldUtils.getInstanceFromStaticBeanManager(CoreOrderPersistenceAdapter.class)
+            .persistTransformedEnvelope(OrderFlowUtils.wrapSingleEnvelope(prepared, order));
+      } else {
+        result = WeldUtils.getInstanceFromStaticBeanManager(OcreOrderLoadOrchestrator.class)
+            .importEnvelope(envelope);
+      }
+      int status = result.optInt(JsonConstants.RESPONSE_STATUS,
+          JsonConstants.RPCREQUEST_STATUS_SUCCESS);
+      return status == JsonConstants.RPCREQUEST_STATUS_SUCCESS ? null
+          : result.optString("message", "status " + status);
+    } catch (Exception e) {
+      return e.getClass().getSimpleName() + ": " + e.getMessage();
+    } finally {
+      OBDal.getInstance().rollbackAndClose();
+    }
+  }
+
+  /** Bytes allocated so far by this thread, or -1 if the JVM does not tell. */
+  private static long getAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+    return sunThreads.isThreadAllocatedMemoryEnabled()
+        ? sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId())
+        : -1;
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  private static double toMillis(long nanos) {
+    return round(nanos / 1e6);
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 100) / 100d;
+  }
+
+  private static JSONObject readBody(HttpServletRequest request) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    String line;
+    try (BufferedReader reader = request.getReader()) {
+      while ((line = reader.readLine()) != null) {
+        sb.append(line);
+      }
+    }
+    return new JSONObject(sb.toString());
+  }
+
+  private static void writeError(HttpServletResponse response, int status, String message)
+      throws Exception {
+    response.setStatus(status);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    JSONObject err = new JSONObject();
+    err.put("error", true);
+    err.put("message", message);
+    PrintWriter out = response.getWriter();
+    out.print(err.toString());
+    out.flush();
+  }
+
+  /** Shape of the synthetic tickets and how many to import. */
+  private static class Scenario {
+    private final String posTerminal;
+    private final JSONArray products;
+    private final String paymentKind;
+    private final String discountRule;
+    private final BigDecimal taxRate;
+    private final int lines;
+    private final int promotionsPerLine;
+    private final int payments;
+    private final OrderFlowType flow;
+    private final int warmup;
+    private final int iterations;
+    private final boolean persistenceOnly;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36).toUpperCase();
+    private int sequence;
+
+    Scenario(JSONObject body) throws JSONException {
+      posTerminal = body.getString("posTerminal");
+      products = body.getJSONArray("products");
+      if (products.length() == 0) {
+        throw new IllegalArgumentException("products must not be empty");
+      }
+      lines = Math.max(1, body.optInt("lines", 5));
+      promotionsPerLine = Math.max(0, body.optInt("promotionsPerLine", 0));
+      discountRule = body.optString("discountRule", null);
+      if (promotionsPerLine > 0 && discountRule == null) {
+        throw new IllegalArgumentException("promotionsPerLine needs a discountRule");
+      }
+      flow = OrderFlowType.valueOf(body.optString("flow", OrderFlowType.STANDARD_SALE.name()));
+      if (flow == OrderFlowType.OTHER) {
+        throw new IllegalArgumentException("flow OTHER is not supported");
+      }
+      payments = flow == OrderFlowType.QUOTATION ? 0 : Math.max(0, body.optInt("payments", 1));
+      paymentKind = body.optString("paymentKind", null);
+      if (payments > 0 && paymentKind == null) {
+        throw new IllegalArgumentException("payments need a paymentKind");
+      }
+      taxRate = new BigDecimal(body.optString("taxRate", "0"));
+      warmup = Math.max(0, body.optInt("warmup", 20));
+      iterations = body.optInt("iterations", 200);
+      if (iterations < 1 || iterations + warmup > MAX_ITERATIONS) {
+        throw new IllegalArgumentException(
+            "iterations must be between 1 and " + MAX_ITERATIONS + " including the warmup");
+      }
+      if (body.optBoolean("commit", false)) {
+        throw new IllegalArgumentException("commit is not supported, every ticket is rolled back");
+      }
+      persistenceOnly = "persistence".equals(body.optString("target", "orchestrator"));
+    }
+
+    JSONObject newEnvelope() throws JSONException {
+      String documentNo = "BENCH-" + runId + "-" + (++sequence);
+      boolean isReturn = flow == OrderFlowType.RETURN;
+      BigDecimal qty = isReturn ? BigDecimal.ONE.negate() : BigDecimal.ONE;
+      BigDecimal taxFactor = BigDecimal.ONE
+          .add(taxRate.divide(new BigDecimal(100), 6, RoundingMode.HALF_UP));
+
+      JSONArray lineArray = new JSONArray();
+      BigDecimal net = BigDecimal.ZERO;
+      BigDecimal gross = BigDecimal.ZERO;
+      for (int i = 0; i < lines; i++) {
+        JSONArray promotions = new JSONArray();
+        for (int p = 0; p < promotionsPerLine; p++) {
+          JSONObject promotion = new JSONObject();
+          promotion.put("discountRule", discountRule);
+          promotion.put("amount", PROMOTION_AMOUNT);
+          promotion.put("quantity", qty.abs());
+          promotion.put("hidden", false);
+          promotions.put(promotion);
+        }
+        BigDecimal lineNet = UNIT_PRICE
+            .subtract(PROMOTION_AMOUNT.multiply(new BigDecimal(promotionsPerLine)))
+            .multiply(qty);
+        BigDecimal lineGross = lineNet.multiply(taxFactor).setScale(2, RoundingMode.HALF_UP);
+        JSONObject taxLine = new JSONObject();
+        taxLine.put("rate", taxRate);
+        JSONObject taxLines = new JSONObject();
+        taxLines.put("benchmark", taxLine);
+
+        JSONObject line = new JSONObject();
+        line.put("id", newId());
+        line.put("product", products.getString(i % products.length()));
+        line.put("qty", qty);
+        line.put("price", UNIT_PRICE);
+        line.put("baseNetUnitPrice", UNIT_PRICE);
+        line.put("lineNetAmount", lineNet);
+        BigDecimal grossUnitPrice = lineGross.divide(qty, 2, RoundingMode.HALF_UP);
+        line.put("grossUnitPrice", grossUnitPrice);
+        line.put("baseGrossUnitPrice", grossUnitPrice);
+        line.put("lineGrossAmount", lineGross);
+        line.put("taxLines", taxLines);
+        line.put("promotions", promotions);
+        lineArray.put(line);
+        net = net.add(lineNet);
+        gross = gross.add(lineGross);
+      }
+
+      // A layaway pays half, the other flows pay the whole ticket
+      BigDecimal paid = flow == OrderFlowType.LAYAWAY
+          ? gross.divide(new BigDecimal(2), 2, RoundingMode.HALF_UP)
+          : gross;
+      JSONArray paymentArray = new JSONArray();
+      for (int i = 0; i < payments; i++) {
+        BigDecimal amount = i < payments - 1
+            ? paid.divide(new BigDecimal(payments), 2, RoundingMode.DOWN)
+            : paid.subtract(paid.divide(new BigDecimal(payments), 2, RoundingMode.DOWN)
+                .multiply(new BigDecimal(payments - 1)));
+        JSONObject payment = new JSONObject();
+        payment.put("kind", paymentKind);
+        payment.put("amount", amount);
+        payment.put("origAmount", amount);
+        payment.put("date", OffsetDateTime.now().toString());
+        paymentArray.put(payment);
+      }
+
+      JSONObject order = new JSONObject();
+      order.put("id", newId());
+      order.put("documentNo", documentNo);
+      order.put("orderDate", OffsetDateTime.now().toString());
+      order.put("step", "all");
+      order.put("completeTicket", flow != OrderFlowType.LAYAWAY
+          && flow != OrderFlowType.QUOTATION);
+      order.put("isReturn", isReturn);
+      order.put("isQuotation", flow == OrderFlowType.QUOTATION);
+      order.put("isLayaway", flow == OrderFlowType.LAYAWAY);
+      order.put("netAmount", net);
+      order.put("grossAmount", gross);
+      order.put("lines", lineArray);
+      order.put("payments", paymentArray);
+
+      JSONObject envelope = new JSONObject();
+      envelope.put("messageId", newId());
+      envelope.put("posTerminal", posTerminal);
+      envelope.put("appName", "OCRE");
+      envelope.put("channel", "Native");
+      envelope.put("data", new JSONArray().put(order));
+      return envelope;
+    }
+
+    JSONObject toJson() throws JSONException {
+      JSONObject json = new JSONObject();
+      json.put("flow", flow);
+      json.put("lines", lines);
+      json.put("promotionsPerLine", promotionsPerLine);
+      json.put("payments", payments);
+      json.put("target", persistenceOnly ? "persistence" : "orchestrator");
+      json.put("warmup", warmup);
+      return json;
+    }
+
+    private static String newId() {
+      return UUID.randomUUID().toString().replace("-", "").toUpperCase(Locale.ROOT);
+    }
+  }
+}
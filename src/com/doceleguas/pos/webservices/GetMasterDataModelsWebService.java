@@ -7,6 +7,7 @@ import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONObject;
 import org.openbravo.base.weld.WeldUtils;
 import org.openbravo.mobile.core.master.MasterDataProcessHQLQuery;
@@ -18,6 +19,10 @@ public class GetMasterDataModelsWebService implements WebService {
   public void doGet(String path, HttpServletRequest request, HttpServletResponse response)
       throws Exception {
     try {
+      if (request.getParameter("v2") != null) {
+        writeModels(response);
+        return;
+      }
       List<String> modelNames = WeldUtils.getInstances(MasterDataProcessHQLQuery.class)
           .stream()
           .map(MasterDataProcessHQLQuery::getName)
@@ -49,6 +54,30 @@ public class GetMasterDataModelsWebService implements WebService {
     }
   }
 
+  /**
+   * Lists the v2 models of {@link MasterDataModelRegistry} with the request parameters each one
+   * supports.
+   */
+  private void writeModels(HttpServletResponse response) throws Exception {
+    JSONArray models = new JSONArray();
+    for (Model model : WeldUtils.getInstanceFromStaticBeanManager(MasterDataModelRegistry.class)
+        .getModels()) {
+      JSONObject modelJson = new JSONObject();
+      modelJson.put("name", model.getName());
+      modelJson.put("parameters", new JSONArray(model.getSupportedParameters()));
+      modelJson.put("changeLog", model.hasChangeLog());
+      models.put(modelJson);
+    }
+    JSONObject result = new JSONObject();
+    result.put("models", models);
+
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    PrintWriter writer = response.getWriter();
+    writer.write(result.toString());
+    writer.flush();
+  }
+
   @Override
   public void doPost(String path, HttpServletRequest request, HttpServletResponse response)
       throws Exception {
@@ -25,6 +25,7 @@ import org.openbravo.service.db.DbUtility;
 import org.openbravo.service.web.WebService;
 
 import com.doceleguas.pos.webservices.orders.OrdersFilterModel;
+import com.doceleguas.pos.webservices.utils.ResponseCompression;
 
 /**
  * WebService endpoint for querying Orders using Native SQL queries.
@@ -128,7 +129,7 @@ public class GetOrdersFilter implements WebService {
       }
       responseJson.put("hasMore", rowCount > 0 && rowCount >= limit);  // More pages available
       
-      response.getWriter().write(responseJson.toString());
+      ResponseCompression.write(request, response, responseJson.toString());
       
       long elapsed = System.currentTimeMillis() - startTime;
       log.debug("GetOrdersFilter completed in {}ms, returned {} rows", elapsed, rowCount);
@@ -24,6 +24,8 @@ import org.openbravo.retail.posterminal.OBPOSApplications;
 import org.openbravo.service.db.DbUtility;
 import org.openbravo.service.web.WebService;
 
+import com.doceleguas.pos.webservices.utils.ResponseCompression;
+
 /**
  * WebService endpoint for retrieving Terminal configuration data.
  *
@@ -95,7 +97,7 @@ public class LoadTerminal implements WebService {
         responseJson.put("success", true);
       }
 
-      response.getWriter().write(responseJson.toString());
+      ResponseCompression.write(request, response, responseJson.toString());
 
       long elapsed = System.currentTimeMillis() - startTime;
       log.debug("GetTerminal completed in {}ms", elapsed);
@@ -0,0 +1,482 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.service.web.WebService;
+
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContext;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+import com.doceleguas.pos.webservices.utils.ResponseCompression;
+
+/**
+ * Serves several v2 master data pages in one request, so a terminal boot does not need a round
+ * trip and a context setup per model.
+ *
+ * <pre>
+ * POST {"pos":..,"client":..,"organization":..,
+ *       "entries":[{"model":"Product","selectList":"..","limit":1000},{"model":"TaxRate",..}]}
+ * </pre>
+ *
+ * The top level fields other than {@code entries} are the defaults of every entry, and
+ * {@code client} and {@code organization} default to the ones of the terminal. The terminal is
+ * resolved once for the whole batch. Entries accept the same parameters as MasterDataService v2.
+ *
+ * The response is {@code {"parts":[page,..],"partCount":n}} where every page is the document
+ * MasterDataService returns for that entry, in the order of the entries. A failed entry is sent as
+ * {@code {"model":..,"exception":..}} and the rest are still served.
+ *
+ * Entries run in a pool, each in its own session and read-only transaction. The entry being
+ * written streams its page straight to the response; the next ones run ahead into a buffer of
+ * maxBufferedChars characters. An entry whose page outgrows the buffer stops and runs again,
+ * streamed, when its turn comes, and its model is no longer run ahead. The query of an entry that
+ * times out is cancelled in the database.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.masterdata.batch.threads pool size shared by all the batches (default 8)</li>
+ * <li>ocws.masterdata.batch.maxConcurrent entries of a batch running at the same time (default
+ * 4)</li>
+ * <li>ocws.masterdata.batch.maxEntries (default 50)</li>
+ * <li>ocws.masterdata.batch.timeout seconds to wait for an entry (default 300)</li>
+ * <li>ocws.masterdata.batch.maxBufferedChars characters of page an entry running ahead may buffer
+ * (default 8000000)</li>
+ * </ul>
+ */
+public class MasterDataBatchWebService implements WebService {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final int MAX_CONCURRENT = Math.max(1,
+      OcwsProperties.getInt("ocws.masterdata.batch.maxConcurrent", 4));
+  private static final int MAX_ENTRIES = OcwsProperties.getInt("ocws.masterdata.batch.maxEntries",
+      50);
+  private static final long TIMEOUT_SECONDS = OcwsProperties
+      .getLong("ocws.masterdata.batch.timeout", 300);
+  private static final long MAX_BUFFERED_CHARS = OcwsProperties
+      .getLong("ocws.masterdata.batch.maxBufferedChars", 8_000_000L);
+  private static final long CANCEL_WAIT_SECONDS = 30;
+  private static final ExecutorService executor = createExecutor();
+  // Models whose pages did not fit in the buffer: they are only run when it is their turn
+  private static final Set<String> unbufferedModels = ConcurrentHashMap.newKeySet();
+
+  @Override
+  public void doPost(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+
+    List<JSONObject> entries;
+    try {
+      entries = getEntries(readBody(request));
+    } catch (JSONException | IllegalArgumentException e) {
+      log.warn("MasterDataBatch invalid request: {}", e.getMessage());
+      writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    OBContext callerContext = OBContext.getOBContext();
+    final String userId = callerContext.getUser().getId();
+    final String roleId = callerContext.getRole().getId();
+
+    List<EntryTask> pending = new ArrayList<>();
+    try (Writer out = ResponseCompression.openWriter(request, response)) {
+      try {
+        // The entry being written and at most MAX_CONCURRENT - 1 entries ahead of it are running
+        pending.add(null);
+        for (int i = 1; i < Math.min(MAX_CONCURRENT, entries.size()); i++) {
+          pending.add(submitAhead(entries.get(i), userId, roleId));
+        }
+        out.write("{\"parts\":[");
+        for (int i = 0; i < entries.size(); i++) {
+          if (i > 0) {
+            out.write(',');
+          }
+          EntryTask ahead = pending.get(i);
+          String page = ahead == null ? null : getBufferedPart(ahead, entries.get(i));
+          pending.set(i, null);
+          if (page != null) {
+            out.write(page);
+          } else {
+            writeStreamedPart(entries.get(i), userId, roleId, out);
+          }
+          out.flush();
+          int next = i + MAX_CONCURRENT;
+          if (next < entries.size()) {
+            pending.add(submitAhead(entries.get(next), userId, roleId));
+          }
+        }
+        out.write("],\"partCount\":");
+        out.write(Integer.toString(entries.size()));
+        out.write('}');
+      } finally {
+        for (EntryTask task : pending) {
+          if (task != null) {
+            task.cancel();
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void doGet(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+        "Use POST with the list of entries in the body.");
+  }
+
+  @Override
+  public void doDelete(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed");
+  }
+
+  @Override
+  public void doPut(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed");
+  }
+
+  /**
+   * Returns the entries with the batch defaults applied. Client and organization default to the
+   * ones of the terminal, which is resolved here once for all the entries.
+   */
+  private List<JSONObject> getEntries(JSONObject body) throws JSONException {
+    JSONArray entryArray = body.optJSONArray("entries");
+    if (entryArray == null) {
+      throw new IllegalArgumentException("Missing required field: entries");
+    }
+    if (entryArray.length() > MAX_ENTRIES) {
+      throw new IllegalArgumentException(
+          "Too many entries: " + entryArray.length() + ", the maximum is " + MAX_ENTRIES);
+    }
+    JSONObject defaults = new JSONObject(body.toString());
+    defaults.remove("entries");
+    OcreTerminalContext terminalContext = OcreTerminalContextCache.getInstance()
+        .get(defaults.optString("pos", null));
+    if (defaults.has("pos") && terminalContext == null) {
+      throw new IllegalArgumentException("No terminal with id: " + defaults.getString("pos"));
+    }
+    if (terminalContext != null) {
+      if (!defaults.has("client")) {
+        defaults.put("client", terminalContext.getClientId());
+      }
+      if (!defaults.has("organization")) {
+        defaults.put("organization", terminalContext.getOrganizationId());
+      }
+    }
+
+    List<JSONObject> entries = new ArrayList<>();
+    for (int i = 0; i < entryArray.length(); i++) {
+      JSONObject entry = new JSONObject(defaults.toString());
+      JSONObject values = entryArray.getJSONObject(i);
+      Iterator<?> keys = values.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        entry.put(key, values.get(key));
+      }
+      if (!entry.has("model") || !entry.has("selectList") || !entry.has("client")
+          || !entry.has("organization")) {
+        throw new IllegalArgumentException(
+            "Entry " + i + " needs model, selectList, client and organization");
+      }
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  /** Runs an entry ahead into a buffer, or returns null if its model is not run ahead. */
+  private static EntryTask submitAhead(JSONObject entry, String userId, String roleId) {
+    if (unbufferedModels.contains(entry.optString("model"))) {
+      return null;
+    }
+    return new EntryTask(entry, userId, roleId, null).submit();
+  }
+
+  /**
+   * Returns the buffered page of an entry run ahead, its error part if it failed or null if the
+   * page did not fit in the buffer.
+   */
+  private String getBufferedPart(EntryTask task, JSONObject entry) throws Exception {
+    try {
+      return task.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      return getErrorPart(entry, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+    } catch (TimeoutException e) {
+      task.cancel();
+      return getErrorPart(entry, newTimeout(entry));
+    }
+  }
+
+  /**
+   * Writes the page of an entry straight to the response. The entry runs in the pool, in its own
+   * session and transaction, while this thread waits for it. A page that fails once started is
+   * closed by the entry itself with an {@code exception} field; earlier failures get an error part.
+   */
+  private void writeStreamedPart(JSONObject entry, String userId, String roleId, Writer out)
+      throws Exception {
+    EntryTask task = new EntryTask(entry, userId, roleId, out).submit();
+    Exception error;
+    try {
+      task.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      return;
+    } catch (ExecutionException e) {
+      error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } catch (TimeoutException e) {
+      error = newTimeout(entry);
+      if (!task.abandon()) {
+        // The entry may be writing to the response: stop its query and let it close its page
+        task.cancelQuery();
+        try {
+          task.getFuture().get(CANCEL_WAIT_SECONDS, TimeUnit.SECONDS);
+          return;
+        } catch (ExecutionException cancelled) {
+          // Failed before starting the page, the timeout part is written below
+        } catch (TimeoutException stillRunning) {
+          task.cancel();
+          throw new OBException(
+              "Batch aborted, " + entry.optString("model") + " did not stop after its timeout");
+        }
+      }
+    }
+    out.write(getErrorPart(entry, error));
+  }
+
+  private static TimeoutException newTimeout(JSONObject entry) {
+    return new TimeoutException(
+        "Timeout loading " + entry.optString("model") + " after " + TIMEOUT_SECONDS + "s");
+  }
+
+  /** Returns the error part of a failed entry. */
+  private static String getErrorPart(JSONObject entry, Exception error) throws JSONException {
+    String modelName = entry.optString("model");
+    log.error("Error Loading Masterdata " + modelName + " in batch", error);
+    JSONObject part = new JSONObject();
+    part.put("model", modelName);
+    part.put("exception", error instanceof TimeoutException ? error.getMessage()
+        : MasterDataPages.getErrorMessage(error));
+    return part.toString();
+  }
+
+  private static JSONObject readBody(HttpServletRequest request) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    String line;
+    try (BufferedReader reader = request.getReader()) {
+      while ((line = reader.readLine()) != null) {
+        sb.append(line);
+      }
+    }
+    return new JSONObject(sb.toString());
+  }
+
+  private static void writeError(HttpServletResponse response, int status, String message)
+      throws Exception {
+    response.setStatus(status);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    JSONObject err = new JSONObject();
+    err.put("error", true);
+    err.put("message", message);
+    PrintWriter out = response.getWriter();
+    out.print(err.toString());
+    out.flush();
+  }
+
+  private static ExecutorService createExecutor() {
+    int threads = Math.max(1, OcwsProperties.getInt("ocws.masterdata.batch.threads", 8));
+    AtomicInteger threadNumber = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable,
+          "ocws-masterdata-batch-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Renders an entry in the pool, in its own session and read-only transaction, either into a
+   * bounded buffer, returning the page, or to the given writer, returning null. Also returns null
+   * when the page does not fit in the buffer. Its query can be cancelled from another thread: the
+   * backend of its connection is known while the entry runs. The queries that parallel mode runs
+   * in other connections stop on their own timeout.
+   */
+  private static class EntryTask implements Callable<String> {
+    private final JSONObject entry;
+    private final String userId;
+    private final String roleId;
+    private final Writer out;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final Object backendLock = new Object();
+    private Integer backendPid;
+    private Future<String> future;
+
+    EntryTask(JSONObject entry, String userId, String roleId, Writer out) {
+      this.entry = entry;
+      this.userId = userId;
+      this.roleId = roleId;
+      this.out = out;
+    }
+
+    EntryTask submit() {
+      future = executor.submit(this);
+      return this;
+    }
+
+    Future<String> getFuture() {
+      return future;
+    }
+
+    @Override
+    public String call() throws Exception {
+      if (!claimed.compareAndSet(false, true)) {
+        return null;
+      }
+      OBContext.setOBContext(userId, roleId, entry.getString("client"),
+          entry.getString("organization"));
+      try {
+        OBDal.getInstance().getSession().doWork(connection -> {
+          try (Statement statement = connection.createStatement()) {
+            statement.execute("SET TRANSACTION READ ONLY");
+            try (ResultSet rs = statement.executeQuery("SELECT pg_backend_pid()")) {
+              rs.next();
+              synchronized (backendLock) {
+                backendPid = rs.getInt(1);
+              }
+            }
+          }
+        });
+        Model model = MasterDataPages.getModel(entry.getString("model"));
+        MasterDataPages.sanitizeSelectList(entry);
+        if (out != null) {
+          MasterDataPages.writePage(model, entry, out);
+          return null;
+        }
+        BoundedWriter page = new BoundedWriter(MAX_BUFFERED_CHARS);
+        try {
+          MasterDataPages.writePage(model, entry, page);
+        } catch (MasterDataPages.PageBufferFullException e) {
+          log.debug("{} page exceeds {} buffered chars, it will be streamed", model.getName(),
+              MAX_BUFFERED_CHARS);
+          unbufferedModels.add(model.getName());
+          return null;
+        }
+        return page.toString();
+      } finally {
+        // The connection must not be cancelled once it is back in the pool
+        synchronized (backendLock) {
+          backendPid = null;
+        }
+        OBDal.getInstance().rollbackAndClose();
+        OBContext.setOBContext((OBContext) null);
+      }
+    }
+
+    /** Keeps the entry from starting. Returns false if it has already started. */
+    boolean abandon() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    /** Cancels the query the entry is running, if any. */
+    void cancelQuery() {
+      synchronized (backendLock) {
+        if (backendPid == null) {
+          return;
+        }
+        try (PreparedStatement ps = OBDal.getInstance()
+            .getConnection(false)
+            .prepareStatement("SELECT pg_cancel_backend(?)")) {
+          ps.setInt(1, backendPid);
+          ps.execute();
+        } catch (Exception e) {
+          log.warn("Could not cancel the query of {} in batch", entry.optString("model"), e);
+        }
+      }
+    }
+
+    void cancel() {
+      abandon();
+      cancelQuery();
+      future.cancel(true);
+    }
+  }
+
+  /** Page buffer of an entry run ahead; fails once the page outgrows it. */
+  private static class BoundedWriter extends Writer {
+    private final StringBuilder buffer = new StringBuilder();
+    private final long maxChars;
+
+    BoundedWriter(long maxChars) {
+      this.maxChars = maxChars;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+        throws MasterDataPages.PageBufferFullException {
+      checkCapacity(len);
+      buffer.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len)
+        throws MasterDataPages.PageBufferFullException {
+      checkCapacity(len);
+      buffer.append(str, off, off + len);
+    }
+
+    private void checkCapacity(int len) throws MasterDataPages.PageBufferFullException {
+      if (buffer.length() + (long) len > maxChars) {
+        throw new MasterDataPages.PageBufferFullException();
+      }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+      return buffer.toString();
+    }
+  }
+}
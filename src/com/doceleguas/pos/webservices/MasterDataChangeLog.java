@@ -0,0 +1,166 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Reads the master data changes recorded in OCWS_CHANGELOG by MasterDataChangeLogEventHandler.
+ *
+ * Positions in the log ({@code lastSeq}) are transaction horizons: all the transactions with an
+ * id lower than the horizon had finished when it was taken, so no change can show up later below
+ * it. A plain sequence number cannot give that guarantee because values taken by a transaction
+ * that commits late would be skipped by clients that already read past them.
+ *
+ * The log is trimmed by {@link #purge}. The purge position is kept as a row of its own
+ * ({@code entity = '_purged'}); a delta from a position below it may have lost changes.
+ */
+public class MasterDataChangeLog {
+
+  private static final String PURGE_MARK = "_purged";
+
+  private MasterDataChangeLog() {
+  }
+
+  /** Current log position: changes below it are final. */
+  public static long getCurrentSeq() {
+    Object xmin = OBDal.getInstance()
+        .getSession()
+        .createNativeQuery("SELECT txid_snapshot_xmin(txid_current_snapshot())")
+        .uniqueResult();
+    return ((Number) xmin).longValue();
+  }
+
+  /** Oldest position deltas can be served from, 0 if the log was never purged. */
+  public static long getPurgedSeq() {
+    String sql = "SELECT coalesce(max(txid), 0) FROM ocws_changelog WHERE entity = ?";
+    try (PreparedStatement ps = OBDal.getInstance().getConnection(false).prepareStatement(sql)) {
+      ps.setString(1, PURGE_MARK);
+      try (ResultSet rs = ps.executeQuery()) {
+        rs.next();
+        return rs.getLong(1);
+      }
+    } catch (SQLException e) {
+      throw new OBException("Error reading the change log purge position", e);
+    }
+  }
+
+  /**
+   * Deletes the changes logged before {@code olderThan}, in the transaction of the DAL connection.
+   * All the changes below the new purge position are deleted, so the position is the oldest
+   * transaction that logged a change after {@code olderThan}, or the current position if none did.
+   * Returns the number of rows deleted.
+   */
+  public static int purge(Date olderThan) {
+    Connection connection = OBDal.getInstance().getConnection(false);
+    try {
+      long position = getCurrentSeq();
+      try (PreparedStatement ps = connection.prepareStatement("SELECT min(txid)"
+          + " FROM ocws_changelog WHERE created >= ? AND entity <> ?")) {
+        ps.setTimestamp(1, new Timestamp(olderThan.getTime()));
+        ps.setString(2, PURGE_MARK);
+        try (ResultSet rs = ps.executeQuery()) {
+          if (rs.next() && rs.getObject(1) != null) {
+            position = Math.min(position, rs.getLong(1));
+          }
+        }
+      }
+      position = Math.max(position, getPurgedSeq());
+
+      int deleted;
+      try (PreparedStatement ps = connection
+          .prepareStatement("DELETE FROM ocws_changelog WHERE txid < ? AND entity <> ?")) {
+        ps.setLong(1, position);
+        ps.setString(2, PURGE_MARK);
+        deleted = ps.executeUpdate();
+      }
+      try (PreparedStatement ps = connection
+          .prepareStatement("DELETE FROM ocws_changelog WHERE entity = ?")) {
+        ps.setString(1, PURGE_MARK);
+        ps.executeUpdate();
+      }
+      try (PreparedStatement ps = connection.prepareStatement("INSERT INTO ocws_changelog"
+          + " (ocws_changelog_id, ad_client_id, ad_org_id, isactive, created, createdby, updated,"
+          + " updatedby, entity, record_id, operation, txid)"
+          + " VALUES (get_uuid(), '0', '0', 'Y', now(), '0', now(), '0', ?, '0', 'P', ?)")) {
+        ps.setString(1, PURGE_MARK);
+        ps.setLong(2, position);
+        ps.executeUpdate();
+      }
+      return deleted;
+    } catch (SQLException e) {
+      throw new OBException("Error purging the change log", e);
+    }
+  }
+
+  /**
+   * Returns, ordered by id, the records of the model changed between the two positions. At most
+   * {@code limit} ids after {@code lastId} are returned; {@link ChangeSet#hasMore} tells whether
+   * the range has more.
+   */
+  public static ChangeSet getChanges(String modelName, String clientId, long fromSeq, long toSeq,
+      String lastId, int limit) {
+    String sql = "SELECT DISTINCT record_id FROM ocws_changelog" //
+        + " WHERE entity = ? AND ad_client_id = ? AND txid >= ? AND txid < ?" //
+        + (lastId != null ? " AND record_id > ?" : "") //
+        + " ORDER BY record_id LIMIT ?";
+    Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement ps = connection.prepareStatement(sql)) {
+      int i = 1;
+      ps.setString(i++, modelName);
+      ps.setString(i++, clientId);
+      ps.setLong(i++, fromSeq);
+      ps.setLong(i++, toSeq);
+      if (lastId != null) {
+        ps.setString(i++, lastId);
+      }
+      ps.setInt(i, limit + 1);
+      List<String> ids = new ArrayList<>();
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          ids.add(rs.getString(1));
+        }
+      }
+      boolean hasMore = ids.size() > limit;
+      if (hasMore) {
+        ids.remove(ids.size() - 1);
+      }
+      return new ChangeSet(ids, hasMore);
+    } catch (SQLException e) {
+      throw new OBException("Error reading the change log of " + modelName, e);
+    }
+  }
+
+  public static class ChangeSet {
+    private final List<String> recordIds;
+    private final boolean hasMore;
+
+    private ChangeSet(List<String> recordIds, boolean hasMore) {
+      this.recordIds = recordIds;
+      this.hasMore = hasMore;
+    }
+
+    public List<String> getRecordIds() {
+      return recordIds;
+    }
+
+    public boolean hasMore() {
+      return hasMore;
+    }
+  }
+}
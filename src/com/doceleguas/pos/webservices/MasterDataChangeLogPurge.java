@@ -0,0 +1,47 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.util.Date;
+
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.scheduling.ProcessBundle;
+import org.openbravo.service.db.DalBaseProcess;
+
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Background process (OCWS_PurgeChangeLog) that trims OCWS_CHANGELOG, which otherwise grows with
+ * every master data change. Schedule it from Process Request, e.g. daily.
+ *
+ * Terminals whose {@code lastSeq} is older than the purged range get {@code reload: true} on
+ * their next delta and must do a full load, so the retention must be longer than the time a
+ * terminal can stay offline.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.changelog.retentionDays days changes are kept (default 7)</li>
+ * </ul>
+ */
+public class MasterDataChangeLogPurge extends DalBaseProcess {
+
+  @Override
+  protected void doExecute(ProcessBundle bundle) throws Exception {
+    long retentionDays = Math.max(1,
+        OcwsProperties.getLong("ocws.changelog.retentionDays", 7));
+    Date olderThan = new Date(System.currentTimeMillis() - retentionDays * 24 * 60 * 60 * 1000L);
+    OBContext.setAdminMode(true);
+    try {
+      int deleted = MasterDataChangeLog.purge(olderThan);
+      bundle.getLogger()
+          .logln("Deleted " + deleted + " change log rows older than " + retentionDays + " days");
+    } finally {
+      OBContext.restorePreviousMode();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Compact ({@code format=columnar}) master data page: property names are sent once and every row
+ * is an array of values in that order.
+ *
+ * <pre>
+ * {"model":"Product","format":"columnar","columns":["id","name","uOM"],"data":[["A1..","Water",0],..],
+ *  "dictionary":{"uOM":["EA","KG"]},"totalRecords":..,"queryCount":..}
+ * </pre>
+ *
+ * The columns are taken from the first row. Properties that only appear in later rows are
+ * appended at the end of the rows and listed in a trailing {@code extraColumns}; the full column
+ * list is {@code columns} followed by {@code extraColumns}. Values of the columns listed in the
+ * {@code dictionary} request parameter are replaced by their position in the trailing
+ * {@code dictionary} arrays, which suits low cardinality columns such as UOM or category ids.
+ */
+public class MasterDataColumnarWriter extends MasterDataStreamWriter {
+
+  public static final String FORMAT = "columnar";
+
+  private final Set<String> dictionaryColumns = new HashSet<>();
+  private final Map<String, Map<Object, Integer>> dictionaries = new LinkedHashMap<>();
+  private List<String> columns;
+  private final Set<String> columnNames = new HashSet<>();
+  private int headerColumnCount;
+
+  public MasterDataColumnarWriter(Writer out, String dictionaryColumnList) {
+    super(out);
+    if (dictionaryColumnList != null) {
+      for (String column : dictionaryColumnList.split(",")) {
+        if (!column.trim().isEmpty()) {
+          dictionaryColumns.add(column.trim());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void writeRow(JSONObject row) throws IOException {
+    if (columns == null) {
+      writeColumns(row);
+    }
+    Iterator<?> keys = row.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      if (columnNames.add(key)) {
+        columns.add(key);
+      }
+    }
+    JSONArray values = new JSONArray();
+    for (String column : columns) {
+      Object value = row.opt(column);
+      if (value == null || value == JSONObject.NULL) {
+        values.put(JSONObject.NULL);
+      } else if (dictionaryColumns.contains(column)) {
+        Map<Object, Integer> dictionary = dictionaries.computeIfAbsent(column,
+            k -> new LinkedHashMap<>());
+        values.put(dictionary.computeIfAbsent(value, k -> dictionary.size()));
+      } else {
+        values.put(value);
+      }
+    }
+    writeDataElement(values.toString());
+  }
+
+  @Override
+  public void writeRow(String rowJson) throws IOException {
+    try {
+      writeRow(new JSONObject(rowJson));
+    } catch (JSONException e) {
+      throw new IOException("Invalid master data row", e);
+    }
+  }
+
+  @Override
+  protected void openData() {
+    // columns and data are opened with the first row
+  }
+
+  @Override
+  protected void closeData() throws IOException {
+    if (columns == null) {
+      writeColumns(new JSONObject());
+    }
+    out.write(']');
+    if (columns.size() > headerColumnCount) {
+      out.write(",\"extraColumns\":");
+      out.write(new JSONArray(columns.subList(headerColumnCount, columns.size())).toString());
+    }
+    if (!dictionaries.isEmpty()) {
+      out.write(",\"dictionary\":{");
+      boolean first = true;
+      for (Map.Entry<String, Map<Object, Integer>> dictionary : dictionaries.entrySet()) {
+        if (!first) {
+          out.write(',');
+        }
+        out.write(JSONObject.quote(dictionary.getKey()));
+        out.write(':');
+        out.write(new JSONArray(dictionary.getValue().keySet()).toString());
+        first = false;
+      }
+      out.write('}');
+    }
+  }
+
+  private void writeColumns(JSONObject firstRow) throws IOException {
+    columns = new ArrayList<>();
+    Iterator<?> keys = firstRow.keys();
+    while (keys.hasNext()) {
+      columns.add((String) keys.next());
+    }
+    columnNames.addAll(columns);
+    headerColumnCount = columns.size();
+    out.write(",\"format\":\"" + FORMAT + "\",\"columns\":");
+    out.write(new JSONArray(columns).toString());
+    out.write(",\"data\":[");
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Name to {@link Model} map, built once when the application starts. Models must not keep request
+ * state in fields because the same instance serves all the requests.
+ */
+@ApplicationScoped
+public class MasterDataModelRegistry {
+  private static final Logger log = LogManager.getLogger();
+
+  @Inject
+  @Any
+  private Instance<Model> modelInstances;
+
+  private Map<String, Model> models;
+
+  @PostConstruct
+  private void init() {
+    Map<String, Model> byName = new TreeMap<>();
+    for (Model model : modelInstances) {
+      Model previous = byName.putIfAbsent(model.getName(), model);
+      if (previous != null) {
+        log.warn("Master data model {} is defined by {} and {}, using the first one",
+            model.getName(), previous.getClass().getName(), model.getClass().getName());
+      }
+    }
+    models = Collections.unmodifiableMap(byName);
+    log.info("Registered {} master data models: {}", models.size(), models.keySet());
+  }
+
+  /** Returns the model with the given name or null if there is none. */
+  public Model getModel(String name) {
+    return name == null ? null : models.get(name);
+  }
+
+  /** All the models, ordered by name. */
+  public Collection<Model> getModels() {
+    return models.values();
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.query.NativeQuery;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.weld.WeldUtils;
+import org.openbravo.service.db.DbUtility;
+
+/**
+ * Builds v2 master data pages. Shared by {@link MasterDataWebService}, which serves one page per
+ * request, and {@link MasterDataBatchWebService}, which serves several pages in one response.
+ */
+class MasterDataPages {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String SELECT_LIST_KEYWORDS = "(?i)\\b(select|update|delete|drop)\\b";
+
+  private MasterDataPages() {
+  }
+
+  static Model getModel(String modelName) throws MasterDataLoaderError {
+    Model model;
+    try {
+      model = WeldUtils.getInstanceFromStaticBeanManager(MasterDataModelRegistry.class)
+          .getModel(modelName);
+    } catch (Exception e) {
+      throw new MasterDataLoaderError("Error loading model " + modelName, e);
+    }
+    if (model == null) {
+      throw new MasterDataLoaderError("Error loading model " + modelName, null);
+    }
+    return model;
+  }
+
+  /** Removes SQL keywords from the select list sent by the client. */
+  static void sanitizeSelectList(JSONObject parameters) throws JSONException {
+    String selectList = parameters.getString("selectList")
+        .replaceAll(SELECT_LIST_KEYWORDS, "")
+        .trim()
+        .replaceAll(" +", " ");
+    parameters.put("selectList", selectList);
+  }
+
+  /** Whether the request is an incremental load served from the change log. */
+  static boolean isChangeLogDelta(Model model, JSONObject parameters) {
+    return model.hasChangeLog() && parameters.has("lastSeq");
+  }
+
+  /** Fields added after {@code queryCount} to a page that is not a change log delta. */
+  private static Map<String, Object> newTrailer(Model model) {
+    // Taken before reading so changes made while the page is built are sent by the next delta
+    Map<String, Object> trailer = new LinkedHashMap<>();
+    if (model.hasChangeLog()) {
+      trailer.put("lastSeq", MasterDataChangeLog.getCurrentSeq());
+    }
+    return trailer;
+  }
+
+  /**
+   * Returns the snapshot of the page requested by the parameters, rendering and caching it on a
+   * miss, or null if the page is not cached: change log deltas, incremental loads and models
+   * without snapshot scope.
+   */
+  static MasterDataSnapshotCache.Snapshot getSnapshot(Model model, JSONObject parameters)
+      throws Exception {
+    if (isChangeLogDelta(model, parameters)) {
+      return null;
+    }
+    MasterDataSnapshotCache snapshotCache = MasterDataSnapshotCache.getInstance();
+    String snapshotKey = snapshotCache.getKey(model, parameters);
+    if (snapshotKey == null) {
+      return null;
+    }
+    long dataVersion = snapshotCache.getDataVersion(model);
+    return snapshotCache.getOrRender(snapshotKey, dataVersion,
+        () -> renderPage(model, parameters, newTrailer(model)));
+  }
+
+  /** Renders a full page in memory, to be kept in the snapshot cache. */
+  private static String renderPage(Model model, JSONObject parameters, Map<String, Object> trailer)
+      throws Exception {
+    StringWriter page = new StringWriter();
+    MasterDataStreamWriter pageWriter = MasterDataStreamWriter.create(page, parameters);
+    pageWriter.begin(model.getName());
+    int queryCount = writeModelRows(model, parameters, null, pageWriter);
+    pageWriter.end(queryCount, trailer);
+    return page.toString();
+  }
+
+  /**
+   * Writes the page requested by the parameters: a change log delta, a cached snapshot or rows
+   * streamed from the model queries. If the page fails once it has been started it is closed
+   * with an {@code exception} field and this method returns normally; earlier errors are thrown.
+   */
+  static void writePage(Model model, JSONObject parameters, Writer out) throws Exception {
+    if (isChangeLogDelta(model, parameters)) {
+      MasterDataStreamWriter writer = MasterDataStreamWriter.create(out, parameters);
+      try {
+        writer.begin(model.getName());
+        writeChangeLogDelta(model, parameters, writer);
+      } catch (Exception e) {
+        failOrThrow(writer, e);
+      }
+      return;
+    }
+    MasterDataSnapshotCache.Snapshot snapshot = getSnapshot(model, parameters);
+    if (snapshot != null) {
+      out.write(snapshot.getPage());
+      return;
+    }
+    Map<String, Object> trailer = newTrailer(model);
+    String lastUpdated = parameters.optString("lastUpdated", null);
+
+    MasterDataStreamWriter writer = MasterDataStreamWriter.create(out, parameters);
+    try {
+      writer.begin(model.getName());
+      int queryCount = writeModelRows(model, parameters, lastUpdated, writer);
+      writer.end(queryCount, trailer);
+    } catch (Exception e) {
+      failOrThrow(writer, e);
+    }
+  }
+
+  /** Message sent to the client for a failed page. */
+  static String getErrorMessage(Exception e) {
+    Throwable cause = DbUtility.getUnderlyingSQLException(e);
+    return (cause != null && cause.getMessage() != null) ? cause.getMessage()
+        : "Internal Server Error";
+  }
+
+  private static void failOrThrow(MasterDataStreamWriter writer, Exception e) throws Exception {
+    if (!writer.isOpen() || e instanceof PageBufferFullException) {
+      throw e;
+    }
+    log.error("Error Loading Masterdata", e);
+    // Rows were already sent: close the page instead of appending a second JSON document.
+    writer.fail(getErrorMessage(e));
+  }
+
+  /**
+   * Serves an incremental load from the change log: the records changed since {@code lastSeq} are
+   * read again through the model, restricted to their ids, and the ids the model no longer returns
+   * (deleted, or out of the terminal scope) are sent as {@code {"id":..,"_deleted":true}}.
+   *
+   * A range with more than {@code limit} changes is paged: the response has {@code hasMore} and the
+   * client repeats the request with the returned {@code toSeq} and {@code lastId}. A
+   * {@code lastSeq} older than the purged part of the log gets no rows and {@code reload: true}.
+   */
+  static void writeChangeLogDelta(Model model, JSONObject parameters,
+      MasterDataStreamWriter writer) throws Exception {
+    long fromSeq = parameters.getLong("lastSeq");
+    if (fromSeq < MasterDataChangeLog.getPurgedSeq()) {
+      Map<String, Object> trailer = new LinkedHashMap<>();
+      trailer.put("reload", true);
+      writer.end(0, trailer);
+      return;
+    }
+    long toSeq = parameters.has("toSeq") ? parameters.getLong("toSeq")
+        : MasterDataChangeLog.getCurrentSeq();
+    int limit = (int) parameters.optLong("limit", 1000);
+    MasterDataChangeLog.ChangeSet changes = MasterDataChangeLog.getChanges(model.getName(),
+        parameters.getString("client"), fromSeq, toSeq, parameters.optString("lastId", null),
+        limit);
+    List<String> ids = changes.getRecordIds();
+
+    int queryCount = 0;
+    if (!ids.isEmpty()) {
+      parameters.put("deltaIds", new JSONArray(ids));
+      parameters.remove("lastId");
+      parameters.remove("lastUpdated");
+      parameters.put("limit", ids.size());
+      List<NativeQuery<?>> queries = model.createQueries(parameters);
+      queryCount = queries.size();
+      Set<String> deletedIds = new LinkedHashSet<>(ids);
+      writeQueryRows(model, queries, null, writer, deletedIds);
+      for (String deletedId : deletedIds) {
+        JSONObject tombstone = new JSONObject();
+        tombstone.put("id", deletedId);
+        tombstone.put("_deleted", true);
+        writer.writeRow(tombstone);
+      }
+    }
+
+    Map<String, Object> trailer = new LinkedHashMap<>();
+    trailer.put("lastSeq", changes.hasMore() ? fromSeq : toSeq);
+    trailer.put("toSeq", toSeq);
+    trailer.put("lastId", ids.isEmpty() ? null : ids.get(ids.size() - 1));
+    trailer.put("hasMore", changes.hasMore());
+    writer.end(queryCount, trailer);
+  }
+
+  /**
+   * Writes the rows of all the model queries, in parallel when the request asks for it. Returns
+   * the number of queries.
+   */
+  static int writeModelRows(Model model, JSONObject parameters, String lastUpdated,
+      MasterDataStreamWriter writer) throws Exception {
+    MasterDataParallelLoader parallelLoader = MasterDataParallelLoader.getInstance();
+    if (parallelLoader.shouldRunInParallel(model, parameters)) {
+      return parallelLoader.writeRows(model, parameters, lastUpdated, writer);
+    }
+    List<NativeQuery<?>> queries = model.createQueries(parameters);
+    writeQueryRows(model, queries, lastUpdated, writer, null);
+    return queries.size();
+  }
+
+  /**
+   * Executes the model queries in order and streams every row to the writer. When
+   * {@code pendingIds} is given, the queries are change log queries: the key of every row, in
+   * {@link Model#DELTA_ID_ALIAS}, is removed from the row and from {@code pendingIds}.
+   */
+  private static void writeQueryRows(Model model, List<NativeQuery<?>> queries,
+      String lastUpdated, MasterDataStreamWriter writer, Set<String> pendingIds)
+      throws Exception {
+    for (NativeQuery<?> query : queries) {
+      MasterDataParallelLoader.scrollRows(model, query, lastUpdated, row -> {
+        if (pendingIds != null) {
+          Object deltaId = row.remove(Model.DELTA_ID_ALIAS);
+          if (deltaId == null) {
+            // Without the key every returned record would also be sent as deleted
+            throw new OBException(model.getName() + " delta query does not select "
+                + Model.DELTA_ID_ALIAS);
+          }
+          pendingIds.remove(deltaId.toString());
+        }
+        writer.writeRow(row);
+      });
+    }
+  }
+
+  static class MasterDataLoaderError extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    MasterDataLoaderError(String errorMessage, Throwable err) {
+      super(errorMessage, err);
+    }
+  }
+
+  /**
+   * Thrown by a bounded page buffer when the page does not fit in it. The page is left unclosed:
+   * the caller discards the buffer and writes the page again somewhere else.
+   */
+  static class PageBufferFullException extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.query.NativeQuery;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Runs the queries of a v2 master data model and writes their rows in query order.
+ *
+ * In parallel mode the first query is streamed from the request thread while the rest run in a
+ * shared pool, each one in its own session and read-only transaction; their rows are buffered and
+ * written once the previous queries are done. The number of queries of the same model running in
+ * the pool is capped; queries that do not get a slot run sequentially in the request thread. So is
+ * the buffer of a pool query: a query whose rows outgrow it stops buffering and runs again
+ * sequentially in the request thread when its turn comes. The buffered rows of a model never
+ * exceed maxPerModel times maxBufferedChars characters.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.masterdata.parallel.enabled (default true)</li>
+ * <li>ocws.masterdata.parallel.threads pool size (default 4)</li>
+ * <li>ocws.masterdata.parallel.maxPerModel concurrent pool queries of a model (default 4)</li>
+ * <li>ocws.masterdata.parallel.timeout seconds to wait for a pool query (default 300)</li>
+ * <li>ocws.masterdata.parallel.maxBufferedChars characters of rows a pool query may buffer
+ * (default 8000000)</li>
+ * </ul>
+ */
+public class MasterDataParallelLoader {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final int CLEAR_SESSION_ROWS = 100;
+
+  private static final MasterDataParallelLoader INSTANCE = new MasterDataParallelLoader();
+
+  private final boolean enabled;
+  private final int maxPerModel;
+  private final long timeoutSeconds;
+  private final long maxBufferedChars;
+  private final ExecutorService executor;
+  private final Map<String, Semaphore> modelPermits = new ConcurrentHashMap<>();
+
+  /** Receives the rows of a query. */
+  interface RowSink {
+    void accept(JSONObject row) throws Exception;
+  }
+
+  public static MasterDataParallelLoader getInstance() {
+    return INSTANCE;
+  }
+
+  private MasterDataParallelLoader() {
+    enabled = OcwsProperties.getBoolean("ocws.masterdata.parallel.enabled", true);
+    maxPerModel = Math.max(1, OcwsProperties.getInt("ocws.masterdata.parallel.maxPerModel", 4));
+    timeoutSeconds = OcwsProperties.getLong("ocws.masterdata.parallel.timeout", 300);
+    maxBufferedChars = OcwsProperties.getLong("ocws.masterdata.parallel.maxBufferedChars",
+        8_000_000L);
+    int threads = Math.max(1, OcwsProperties.getInt("ocws.masterdata.parallel.threads", 4));
+    AtomicInteger threadNumber = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable,
+          "ocws-masterdata-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** Whether the request asked for parallel mode and the model has more than one query. */
+  public boolean shouldRunInParallel(Model model, JSONObject parameters) throws Exception {
+    return enabled && parameters.optBoolean("parallel", false)
+        && model.getQueryCount(parameters) > 1;
+  }
+
+  /**
+   * Writes the rows of all the model queries, running them in parallel. Returns the number of
+   * queries.
+   */
+  public int writeRows(Model model, JSONObject parameters, String lastUpdated,
+      MasterDataStreamWriter writer) throws Exception {
+    int queryCount = model.getQueryCount(parameters);
+    Semaphore permits = modelPermits.computeIfAbsent(model.getName(),
+        name -> new Semaphore(maxPerModel));
+    OBContext callerContext = OBContext.getOBContext();
+    final String userId = callerContext.getUser().getId();
+    final String roleId = callerContext.getRole().getId();
+    final String clientId = callerContext.getCurrentClient().getId();
+    final String orgId = callerContext.getCurrentOrganization().getId();
+
+    List<Future<List<String>>> pending = new ArrayList<>();
+    pending.add(null);
+    try {
+      for (int i = 1; i < queryCount; i++) {
+        if (!permits.tryAcquire()) {
+          log.debug("No parallel slot for {} query {}, it will run sequentially",
+              model.getName(), i);
+          pending.add(null);
+          continue;
+        }
+        final int index = i;
+        final JSONObject queryParameters = new JSONObject(parameters.toString());
+        try {
+          pending.add(executor.submit(() -> {
+            try {
+              return readRows(model, queryParameters, index, lastUpdated, maxBufferedChars,
+                  userId, roleId, clientId, orgId);
+            } finally {
+              permits.release();
+            }
+          }));
+        } catch (RuntimeException e) {
+          permits.release();
+          throw e;
+        }
+      }
+
+      for (int i = 0; i < queryCount; i++) {
+        Future<List<String>> future = pending.get(i);
+        List<String> rows = future == null ? null : getRows(future, model, i);
+        pending.set(i, null);
+        if (rows == null) {
+          scrollRows(model, model.createQuery(parameters, i), lastUpdated, writer::writeRow);
+        } else {
+          for (String row : rows) {
+            writer.writeRow(row);
+          }
+        }
+      }
+    } finally {
+      for (Future<List<String>> future : pending) {
+        if (future != null) {
+          future.cancel(true);
+        }
+      }
+    }
+    return queryCount;
+  }
+
+  /**
+   * Scrolls a query sending every row to the sink. The current session is cleared periodically
+   * so the rows read so far are not retained.
+   */
+  static void scrollRows(Model model, NativeQuery<?> query, String lastUpdated, RowSink sink)
+      throws Exception {
+    if (lastUpdated != null) {
+      query.setParameter("lastUpdated", Instant.ofEpochMilli(Long.parseLong(lastUpdated)));
+    }
+    ScrollableResults scroll = query.scroll(ScrollMode.FORWARD_ONLY);
+    int rows = 0;
+    try {
+      while (scroll.next()) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> rowMap = (Map<String, Object>) scroll.get()[0];
+        sink.accept(model.rowToJson(rowMap));
+        if (++rows % CLEAR_SESSION_ROWS == 0) {
+          OBDal.getInstance().flush();
+          OBDal.getInstance().getSession().clear();
+        }
+      }
+    } finally {
+      scroll.close();
+    }
+  }
+
+  private List<String> getRows(Future<List<String>> future, Model model, int index)
+      throws Exception {
+    try {
+      return future.get(timeoutSeconds, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw new OBException("Error running " + model.getName() + " query " + index, cause);
+    } catch (TimeoutException e) {
+      throw new OBException(
+          "Timeout waiting for " + model.getName() + " query " + index + " after "
+              + timeoutSeconds + "s",
+          e);
+    }
+  }
+
+  /**
+   * Reads the rows of a query in the pool. Returns null when they do not fit in maxBufferedChars,
+   * then the request thread runs the query again.
+   */
+  private static List<String> readRows(Model model, JSONObject parameters, int index,
+      String lastUpdated, long maxBufferedChars, String userId, String roleId, String clientId,
+      String orgId) throws Exception {
+    OBContext.setOBContext(userId, roleId, clientId, orgId);
+    try {
+      OBDal.getInstance().getSession().doWork(connection -> {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("SET TRANSACTION READ ONLY");
+        }
+      });
+      List<String> rows = new ArrayList<>();
+      long[] bufferedChars = { 0 };
+      try {
+        scrollRows(model, model.createQuery(parameters, index), lastUpdated, row -> {
+          String text = row.toString();
+          bufferedChars[0] += text.length();
+          if (bufferedChars[0] > maxBufferedChars) {
+            throw new BufferFullException();
+          }
+          rows.add(text);
+        });
+      } catch (BufferFullException e) {
+        log.debug("{} query {} exceeds {} buffered chars, it will run sequentially",
+            model.getName(), index, maxBufferedChars);
+        return null;
+      }
+      return rows;
+    } finally {
+      OBDal.getInstance().rollbackAndClose();
+      OBContext.setOBContext((OBContext) null);
+    }
+  }
+
+  /** Stops a pool query whose rows do not fit in its buffer. */
+  private static class BufferFullException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    BufferFullException() {
+      super(null, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.dal.service.OBDal;
+
+import com.doceleguas.pos.webservices.utils.ExpiringCache;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+import com.doceleguas.pos.webservices.utils.ResponseCompression;
+
+/**
+ * Cache of serialized v2 master data pages for full (non incremental) loads.
+ *
+ * All the terminals of a store request the same pages with the same product list and price list
+ * version, so the first request renders the page and the following ones are served from memory.
+ * A page is keyed by model, model scope (see {@link Model#getSnapshotScope}), organization,
+ * select list, paging parameters and output format, and it is only reused while the data
+ * version, the greatest {@code updated} of the tables returned by {@link Model#getSnapshotTables},
+ * has not changed. When several terminals miss the same page at once, one of them renders it and
+ * the others wait for that page instead of running the same queries.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.masterdata.snapshot.enabled (default true)</li>
+ * <li>ocws.masterdata.snapshot.ttl seconds a page is kept (default 600)</li>
+ * <li>ocws.masterdata.snapshot.maxEntries (default 500)</li>
+ * <li>ocws.masterdata.snapshot.gzip store pages compressed (default true)</li>
+ * <li>ocws.masterdata.snapshot.versionCheckInterval seconds between data version checks of a
+ * model (default 15)</li>
+ * </ul>
+ */
+public class MasterDataSnapshotCache {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final MasterDataSnapshotCache INSTANCE = new MasterDataSnapshotCache();
+
+  private final boolean enabled;
+  private final boolean gzip;
+  private final ExpiringCache<String, Snapshot> pages;
+  private final ExpiringCache<String, Long> dataVersions;
+  private final ConcurrentHashMap<String, CompletableFuture<Snapshot>> rendering = //
+      new ConcurrentHashMap<>();
+
+  /** Renders a page on a cache miss. */
+  interface PageRenderer {
+    String render() throws Exception;
+  }
+
+  public static MasterDataSnapshotCache getInstance() {
+    return INSTANCE;
+  }
+
+  private MasterDataSnapshotCache() {
+    enabled = OcwsProperties.getBoolean("ocws.masterdata.snapshot.enabled", true);
+    gzip = OcwsProperties.getBoolean("ocws.masterdata.snapshot.gzip", true);
+    pages = new ExpiringCache<>(
+        OcwsProperties.getLong("ocws.masterdata.snapshot.ttl", 600) * 1000L,
+        OcwsProperties.getInt("ocws.masterdata.snapshot.maxEntries", 500));
+    dataVersions = new ExpiringCache<>(
+        OcwsProperties.getLong("ocws.masterdata.snapshot.versionCheckInterval", 15) * 1000L,
+        1000);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the cache key of the page requested by these parameters, or {@code null} if the
+   * request cannot be served from the cache: incremental loads and models without scope.
+   */
+  public String getKey(Model model, JSONObject parameters) throws Exception {
+    if (!enabled || parameters.optString("lastUpdated", null) != null
+        || model.getSnapshotTables().isEmpty()) {
+      return null;
+    }
+    String scope = model.getSnapshotScope(parameters);
+    if (scope == null) {
+      return null;
+    }
+    return model.getName() + "|" + scope + "|" + parameters.optString("organization") + "|"
+        + sha256(parameters.optString("selectList")) + "|"
+        + parameters.optString("lastId", "") + "|" + parameters.optLong("limit", 1000) + "|"
+        + parameters.optLong("offset", 0) + "|" + parameters.optString("format") + "|"
+        + parameters.optString("dictionary");
+  }
+
+  /** Hex SHA-256 of a select list, so pages with different columns never share a key. */
+  private static String sha256(String text) throws Exception {
+    byte[] digest = MessageDigest.getInstance("SHA-256")
+        .digest(text.getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** Returns the cached page if it was rendered with the current data version. */
+  public Snapshot get(String key, long dataVersion) {
+    Snapshot snapshot = pages.get(key);
+    if (snapshot == null || snapshot.dataVersion != dataVersion) {
+      return null;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Returns the cached page, rendering it on a miss. Concurrent misses of the same page and data
+   * version wait for the first one. If that render fails, each of them renders the page itself.
+   */
+  public Snapshot getOrRender(String key, long dataVersion, PageRenderer renderer)
+      throws Exception {
+    Snapshot snapshot = get(key, dataVersion);
+    if (snapshot != null) {
+      return snapshot;
+    }
+    String renderKey = key + "|" + dataVersion;
+    CompletableFuture<Snapshot> render = new CompletableFuture<>();
+    CompletableFuture<Snapshot> running = rendering.putIfAbsent(renderKey, render);
+    if (running != null) {
+      try {
+        return running.get();
+      } catch (ExecutionException e) {
+        log.debug("Render of page {} failed in another request, rendering it again", key);
+        return put(key, dataVersion, renderer.render());
+      }
+    }
+    try {
+      // A render finished between the lookup and the registration
+      snapshot = get(key, dataVersion);
+      if (snapshot == null) {
+        snapshot = put(key, dataVersion, renderer.render());
+      }
+      render.complete(snapshot);
+      return snapshot;
+    } catch (Throwable t) {
+      render.completeExceptionally(t);
+      throw t;
+    } finally {
+      rendering.remove(renderKey, render);
+    }
+  }
+
+  public Snapshot put(String key, long dataVersion, String page) throws IOException {
+    Snapshot snapshot = new Snapshot(dataVersion, page, gzip);
+    pages.put(key, snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Greatest {@code updated} of the model tables, in milliseconds. The value is rechecked at most
+   * once per version check interval, so concurrent full loads share a single query.
+   */
+  public long getDataVersion(Model model) {
+    Long version = dataVersions.get(model.getName(), name -> queryDataVersion(model));
+    return version == null ? 0L : version;
+  }
+
+  /** Drops all cached pages, e.g. after master data has been bulk imported. */
+  public void clear() {
+    pages.clear();
+    dataVersions.clear();
+  }
+
+  private Long queryDataVersion(Model model) {
+    List<String> tables = model.getSnapshotTables();
+    StringBuilder sql = new StringBuilder("SELECT max(u) FROM (");
+    for (int i = 0; i < tables.size(); i++) {
+      if (i > 0) {
+        sql.append(" UNION ALL ");
+      }
+      sql.append("SELECT max(updated) AS u FROM ").append(tables.get(i));
+    }
+    sql.append(") v");
+    log.debug("Checking data version of {}", model.getName());
+    Object result = OBDal.getInstance()
+        .getSession()
+        .createNativeQuery(sql.toString())
+        .uniqueResult();
+    if (result instanceof Timestamp) {
+      return ((Timestamp) result).getTime();
+    } else if (result instanceof Date) {
+      return ((Date) result).getTime();
+    }
+    return 0L;
+  }
+
+  /** A rendered page, kept compressed when gzip storage is enabled. */
+  public static class Snapshot {
+    private final long dataVersion;
+    private final byte[] content;
+    private final boolean gzipped;
+
+    private Snapshot(long dataVersion, String page, boolean gzip) throws IOException {
+      this.dataVersion = dataVersion;
+      this.gzipped = gzip;
+      byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+      this.content = gzip ? ResponseCompression.gzip(bytes) : bytes;
+    }
+
+    /** Returns the page text. */
+    public String getPage() throws IOException {
+      byte[] plain = gzipped ? ResponseCompression.gunzip(content) : content;
+      return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the page. Compressed pages are sent as they are to clients accepting gzip, so the
+     * compression is paid once per page, and inflated for the rest.
+     */
+    public void writeTo(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+      response.addHeader("Vary", "Accept-Encoding");
+      if (gzipped && ResponseCompression.acceptsGzip(request)) {
+        ResponseCompression.writeGzipped(response, content);
+        return;
+      }
+      byte[] plain = gzipped ? ResponseCompression.gunzip(content) : content;
+      response.setContentLength(plain.length);
+      response.getOutputStream().write(plain);
+      response.getOutputStream().flush();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.doceleguas.pos.webservices;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Writes a v2 master data page straight to the response while rows are being read.
+ *
+ * Produces the same document the service used to build in memory:
+ * {@code {"model":..,"data":[..],"totalRecords":..,"queryCount":..}}, but each row is serialized
+ * as soon as {@link Model#rowToJson} returns it, so only one row is held at a time.
+ */
+public class MasterDataStreamWriter {
+
+  protected final Writer out;
+  private boolean open;
+  private int totalRecords;
+
+  public MasterDataStreamWriter(Writer out) {
+    this.out = out;
+  }
+
+  /**
+   * Returns the writer for the requested {@code format}: {@code columnar} (see
+   * {@link MasterDataColumnarWriter}) or the default one object per row.
+   */
+  public static MasterDataStreamWriter create(Writer out, JSONObject parameters) {
+    if (MasterDataColumnarWriter.FORMAT.equals(parameters.optString("format"))) {
+      return new MasterDataColumnarWriter(out, parameters.optString("dictionary", null));
+    }
+    return new MasterDataStreamWriter(out);
+  }
+
+  public void begin(String modelName) throws IOException {
+    out.write("{\"model\":");
+    out.write(JSONObject.quote(modelName));
+    openData();
+    open = true;
+  }
+
+  public void writeRow(JSONObject row) throws IOException {
+    writeRow(row.toString());
+  }
+
+  /** Writes a row that is already serialized as a JSON object. */
+  public void writeRow(String rowJson) throws IOException {
+    writeDataElement(rowJson);
+  }
+
+  public void end(int queryCount) throws IOException {
+    end(queryCount, Collections.emptyMap());
+  }
+
+  /**
+   * Closes the page adding the given fields after {@code queryCount}. Values must be numbers,
+   * booleans or strings.
+   */
+  public void end(int queryCount, Map<String, Object> trailer) throws IOException {
+    closeData();
+    out.write(",\"totalRecords\":");
+    out.write(Integer.toString(totalRecords));
+    out.write(",\"queryCount\":");
+    out.write(Integer.toString(queryCount));
+    for (Map.Entry<String, Object> field : trailer.entrySet()) {
+      out.write(',');
+      out.write(JSONObject.quote(field.getKey()));
+      out.write(':');
+      Object value = field.getValue();
+      if (value instanceof Number || value instanceof Boolean) {
+        out.write(value.toString());
+      } else if (value == null) {
+        out.write("null");
+      } else {
+        out.write(JSONObject.quote(value.toString()));
+      }
+    }
+    out.write('}');
+    out.flush();
+    open = false;
+  }
+
+  /**
+   * Closes a page that failed after {@link #begin} so the client still receives valid JSON; the
+   * rows already sent are kept and the error is reported in the trailing {@code exception} field.
+   */
+  public void fail(String message) throws IOException {
+    closeData();
+    out.write(",\"totalRecords\":");
+    out.write(Integer.toString(totalRecords));
+    out.write(",\"exception\":");
+    out.write(JSONObject.quote(message));
+    out.write('}');
+    out.flush();
+    open = false;
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  public int getTotalRecords() {
+    return totalRecords;
+  }
+
+  /** Writes what goes between the model name and the first row. */
+  protected void openData() throws IOException {
+    out.write(",\"data\":[");
+  }
+
+  /** Writes what goes between the last row and {@code totalRecords}. */
+  protected void closeData() throws IOException {
+    out.write(']');
+  }
+
+  /** Appends an element to the data array and counts it as a record. */
+  protected void writeDataElement(String json) throws IOException {
+    if (totalRecords > 0) {
+      out.write(',');
+    }
+    out.write(json);
+    totalRecords++;
+  }
+}
@@ -1,8 +1,6 @@
 package com.doceleguas.pos.webservices;
 
-import java.io.PrintWriter;
-import java.time.Instant;
-import java.util.List;
+import java.io.Writer;
 import java.util.Map;
 
 import javax.enterprise.inject.spi.CDI;
@@ -14,19 +12,16 @@ import org.apache.logging.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
-import org.hibernate.query.NativeQuery;
-import org.openbravo.base.weld.WeldUtils;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.dal.service.OBQuery;
 import org.openbravo.mobile.core.master.MasterDataProcessHQLQuery;
 import org.openbravo.mobile.core.master.MasterDataProcessHQLQuery.MasterDataModel;
 import org.openbravo.model.ad.access.Role;
 import org.openbravo.model.ad.access.User;
-import org.openbravo.service.db.DbUtility;
 import org.openbravo.service.web.WebService;
 
+import com.doceleguas.pos.webservices.utils.ResponseCompression;
+
 public class MasterDataWebService implements WebService {
   private static final Logger log = LogManager.getLogger();
 
@@ -34,6 +29,7 @@ public class MasterDataWebService implements WebService {
   public void doGet(String path, HttpServletRequest request, HttpServletResponse response)
       throws Exception {
     final String modelName = request.getParameter("model");
+    Writer out = null;
     try {
       // \"_offset\":1,
       String jsonString = "{\"csrfToken\":\"126D2537BF02493EAB64127F306DDE1D\",\"appName\":\"POS\","
@@ -56,57 +52,22 @@ public class MasterDataWebService implements WebService {
       // OBContext.getOBContext().getCurrentOrganization().getId()));
       response.setContentType("application/json");
       response.setCharacterEncoding("UTF-8");
-      JSONObject responseJSON = new JSONObject();
-      responseJSON.put("model", modelName);
-      // response.getWriter().write("{\"model\":\"" + modelName + "\",");
 
       if (jsonsent.has("v2")) {
-        Model model = getModelInstanceNew(modelName);
+        Model model = MasterDataPages.getModel(modelName);
         JSONObject parameters = new JSONObject();
         requestParamsToJson(parameters, request);
-        String regex = "(?i)\\b(select|update|delete|drop)\\b";
-        String selectList = parameters.getString("selectList")
-            .replaceAll(regex, "")
-            .trim()
-            .replaceAll(" +", " ");
-        parameters.put("selectList", selectList);
-
-        List<NativeQuery<?>> queries = model.createQueries(parameters);
-        String lastUpdated = jsonsent.optString("lastUpdated", null);
-
-        JSONArray dataArray = new JSONArray();
-        int totalRecords = 0;
-        int queryIndex = 0;
-
-        for (NativeQuery<?> query : queries) {
-          if (lastUpdated != null) {
-            query.setParameter("lastUpdated", Instant.ofEpochMilli(Long.parseLong(lastUpdated)));
-          }
-          ScrollableResults scroll = query.scroll(ScrollMode.FORWARD_ONLY);
-          int i = 0;
-          try {
-            while (scroll.next()) {
-              @SuppressWarnings("unchecked")
-              Map<String, Object> rowMap = (Map<String, Object>) scroll.get()[0];
-              JSONObject res = model.rowToJson(rowMap);
-              dataArray.put(res);
-              totalRecords++;
-            }
-            i++;
-            if (i % 100 == 0) {
-              OBDal.getInstance().flush();
-              OBDal.getInstance().getSession().clear();
-            }
-          } finally {
-            scroll.close();
-          }
-          queryIndex++;
+        MasterDataPages.sanitizeSelectList(parameters);
+
+        // Served from here rather than from writePage to send the stored gzip bytes as they are
+        MasterDataSnapshotCache.Snapshot snapshot = MasterDataPages.getSnapshot(model, parameters);
+        if (snapshot != null) {
+          snapshot.writeTo(request, response);
+          return;
         }
 
-        responseJSON.put("data", dataArray);
-        responseJSON.put("totalRecords", totalRecords);
-        responseJSON.put("queryCount", queryIndex);
-        response.getWriter().write(responseJSON.toString());
+        out = ResponseCompression.openWriter(request, response);
+        MasterDataPages.writePage(model, parameters, out);
       } else {
         MasterDataProcessHQLQuery modelInstance = getModelInstance(modelName);
         response.getWriter().write("{\"model\":\"" + modelName + "\",");
@@ -114,23 +75,25 @@ public class MasterDataWebService implements WebService {
         response.getWriter().write("}");
       }
     } catch (Exception e) {
-      Throwable cause = DbUtility.getUnderlyingSQLException(e);
       log.error("Error Loading Masterdata", e);
+      String message = MasterDataPages.getErrorMessage(e);
 
       JSONObject errorResponse = new JSONObject();
       try {
-        String message = (cause != null && cause.getMessage() != null) ? cause.getMessage()
-            : "Internal Server Error";
-
         errorResponse.put("exception", message);
 
       } catch (JSONException je) {
         log.error("Error creating JSON error response", je);
       }
 
-      PrintWriter out = response.getWriter();
-      out.print(errorResponse.toString());
-      out.flush();
+      // The response writer can no longer be used once the (gzip) output stream was opened
+      Writer errorOut = out != null ? out : response.getWriter();
+      errorOut.write(errorResponse.toString());
+      errorOut.flush();
+    } finally {
+      if (out != null) {
+        out.close();
+      }
     }
   }
 
@@ -170,28 +133,7 @@ public class MasterDataWebService implements WebService {
           .select(new MasterDataModel.Literal(modelName))
           .get();
     } catch (Exception e) {
-      throw new MasterDataLoaderError("Error loading model " + modelName, e);
-    }
-  }
-
-  private Model getModelInstanceNew(String modelName) throws Exception {
-    try {
-      // return (Model) CDI.current().select(new ModelAnnotation.Literal(modelName)).get();
-      List<Model> allModels = WeldUtils.getInstances(Model.class);
-      return allModels.stream()
-          .filter(model -> model.getName().equals(modelName))
-          .findFirst()
-          .get();
-    } catch (Exception e) {
-      throw new MasterDataLoaderError("Error loading model " + modelName, e);
-    }
-  }
-
-  class MasterDataLoaderError extends Exception {
-    private static final long serialVersionUID = 1L;
-
-    public MasterDataLoaderError(String errorMessage, Throwable err) {
-      super(errorMessage, err);
+      throw new MasterDataPages.MasterDataLoaderError("Error loading model " + modelName, e);
     }
   }
 
@@ -1,14 +1,30 @@
 package com.doceleguas.pos.webservices;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.hibernate.query.NativeQuery;
 
+import com.doceleguas.pos.webservices.utils.ExpiringCache;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
 public abstract class Model {
+  /** Column with the record key in change log (delta) queries, removed before rows are sent. */
+  public static final String DELTA_ID_ALIAS = "_deltaId";
+
+  private static final long SQL_TEMPLATE_TTL = 60 * 60 * 1000L;
+
+  // Models are shared (see MasterDataModelRegistry), so the templates live as long as the model
+  private final ExpiringCache<String, String> sqlTemplates = new ExpiringCache<>(
+      SQL_TEMPLATE_TTL, OcwsProperties.getInt("ocws.masterdata.sqlTemplates.maxEntries", 256));
+
   public abstract NativeQuery<?> createQuery(JSONObject jsonParams) throws JSONException;
 
   public List<NativeQuery<?>> createQueries(JSONObject jsonParams) throws JSONException {
@@ -17,8 +33,104 @@ public abstract class Model {
     return queries;
   }
 
+  /**
+   * Number of queries returned by {@link #createQueries}. Together with
+   * {@link #createQuery(JSONObject, int)} it allows running the queries in parallel, each one
+   * created in the thread (and session) that executes it.
+   */
+  public int getQueryCount(JSONObject jsonParams) throws JSONException {
+    return 1;
+  }
+
+  /** Creates only the query at the given position of {@link #createQueries}. */
+  public NativeQuery<?> createQuery(JSONObject jsonParams, int index) throws JSONException {
+    return createQueries(jsonParams).get(index);
+  }
+
   public abstract String getName();
 
+  /**
+   * Request parameters the model reads, published by GetMasterDataModels. Paging is keyset based
+   * ({@code lastId}) by default.
+   */
+  public List<String> getSupportedParameters() {
+    List<String> parameters = new ArrayList<>(
+        Arrays.asList("selectList", "limit", "lastId", "lastUpdated"));
+    if (hasChangeLog()) {
+      parameters.add("lastSeq");
+      parameters.add("toSeq");
+    }
+    return parameters;
+  }
+
+  /**
+   * Identifies, besides organization, select list and paging, what decides the rows of a full
+   * load (e.g. product list and price list version). Terminals sharing it get the same pages, which
+   * are then served from {@link MasterDataSnapshotCache}. Returns null when the model is not
+   * cacheable.
+   */
+  public String getSnapshotScope(JSONObject jsonParams) throws JSONException {
+    return null;
+  }
+
+  /**
+   * Tables whose last {@code updated} timestamp invalidates the cached pages of this model.
+   */
+  public List<String> getSnapshotTables() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Whether changes of this model are recorded in OCWS_CHANGELOG under {@link #getName()}. Models
+   * returning true must restrict their query to the {@code deltaIds} parameter when present (see
+   * {@link #getDeltaIds}) and then also select their key column as {@link #DELTA_ID_ALIAS}, which
+   * is used to send tombstones for the ids that are no longer returned. The client select list
+   * does not need to include the key.
+   */
+  public boolean hasChangeLog() {
+    return false;
+  }
+
+  /**
+   * Ids requested by a change log (delta) load, or null for regular loads. Inactive records must
+   * be returned too so the terminal can deactivate them.
+   */
+  protected static List<String> getDeltaIds(JSONObject jsonParams) throws JSONException {
+    JSONArray deltaIds = jsonParams.optJSONArray("deltaIds");
+    if (deltaIds == null) {
+      return null;
+    }
+    List<String> ids = new ArrayList<>(deltaIds.length());
+    for (int i = 0; i < deltaIds.length(); i++) {
+      ids.add(deltaIds.getString(i));
+    }
+    return ids;
+  }
+
+  /**
+   * Returns the SQL text for a request shape, building it only the first time the shape is seen.
+   * The shape must include everything the builder depends on (select list and the flags that add
+   * or remove conditions) and never parameter values, which are bound to the query. Reusing the
+   * exact same text also lets the JDBC driver reuse its server side prepared statements.
+   */
+  protected String getSqlTemplate(String shape, Supplier<String> builder) {
+    String sql = sqlTemplates.get(shape);
+    if (sql == null) {
+      sql = builder.get();
+      sqlTemplates.put(shape, sql);
+    }
+    return sql;
+  }
+
+  /** Builds a {@link #getSqlTemplate} shape key from its parts. */
+  protected static String shape(Object... parts) {
+    StringBuilder key = new StringBuilder();
+    for (Object part : parts) {
+      key.append(part).append('\u0001');
+    }
+    return key.toString();
+  }
+
   public JSONObject rowToJson(Map<String, Object> rowMap) throws JSONException {
     return new JSONObject(rowMap);
   }
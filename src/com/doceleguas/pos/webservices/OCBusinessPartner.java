@@ -1,5 +1,6 @@
 package com.doceleguas.pos.webservices;
 
+import java.util.List;
 import java.util.Map;
 
 import org.codehaus.jettison.json.JSONArray;
@@ -23,9 +24,34 @@ public class OCBusinessPartner extends Model {
     // .join(new OrganizationStructureProvider().getNaturalTree(organization), ",");
     String lastUpdated = jsonParams.optString("lastUpdated", null);
     String selectList = jsonParams.getString("selectList");
+    List<String> deltaIds = getDeltaIds(jsonParams);
     Long limit = jsonParams.optLong("limit", 1000);
     String lastId = jsonParams.optString("lastId", null);
+    String sql = getSqlTemplate(
+        shape(selectList, lastUpdated != null, lastId != null, deltaIds != null),
+        () -> buildSql(selectList, lastUpdated != null, lastId != null, deltaIds != null));
+
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql);
+    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+    query.setParameterList("clients", OBContext.getOBContext().getReadableClients())
+        .setParameterList("orgs",
+            OBContext.getOBContext()
+                .getOrganizationStructureProvider()
+                .getNaturalTree(jsonParams.getString("organization")))
+        .setParameter("limit", limit);
+    if (lastId != null) {
+      query.setParameter("lastId", lastId);
+    }
+    if (deltaIds != null) {
+      query.setParameterList("deltaIds", deltaIds);
+    }
+    return query;
+  }
+
+  private String buildSql(String selectList, boolean incremental, boolean hasLastId,
+      boolean delta) {
     String sql = "SELECT " + selectList + ", " //
+        + (delta ? "e.c_bpartner_id AS \"" + DELTA_ID_ALIAS + "\", " : "") //
         + " e.isactive as \"isActive\", " //
         + locations() + ", "//
         + contact() + " " //
@@ -45,29 +71,19 @@ public class OCBusinessPartner extends Model {
         + " AND ( e.ad_org_id IN :orgs )";//
     // + " AND (aduserlist4_.AD_User_ID in (select max(aduser6_.AD_User_ID) "//
     // + " FROM AD_User aduser6_ where aduser6_.C_BPartner_ID=e.C_BPartner_ID)) ";
-    if (lastUpdated != null) {
+    if (delta) {
+      sql += " AND e.c_bpartner_id IN :deltaIds";
+    } else if (incremental) {
       sql += " AND e.updated > :lastUpdated";
     } else {
       sql += "  AND e.IsActive='Y'";
     }
-    if (lastId != null) {
+    if (hasLastId) {
       sql += " AND e.c_bpartner_id > :lastId";
     }
     sql += " ORDER  BY e.c_bpartner_id " //
         + " LIMIT :limit";
-
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql);
-    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameterList("clients", OBContext.getOBContext().getReadableClients())
-        .setParameterList("orgs",
-            OBContext.getOBContext()
-                .getOrganizationStructureProvider()
-                .getNaturalTree(jsonParams.getString("organization")))
-        .setParameter("limit", limit);
-    if (lastId != null) {
-      query.setParameter("lastId", lastId);
-    }
-    return query;
+    return sql;
   }
 
   @Override
@@ -75,6 +91,11 @@ public class OCBusinessPartner extends Model {
     return "BusinessPartner";
   }
 
+  @Override
+  public boolean hasChangeLog() {
+    return true;
+  }
+
   private String locations() {
     //@formatter:off
     return " (SELECT CAST(json_agg("
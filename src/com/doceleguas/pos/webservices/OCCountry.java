@@ -1,5 +1,8 @@
 package com.doceleguas.pos.webservices;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.hibernate.query.NativeQuery;
@@ -44,4 +47,9 @@ public class OCCountry extends Model {
     return "Country";
   }
 
+  @Override
+  public List<String> getSupportedParameters() {
+    return Arrays.asList("selectList", "limit", "offset", "lastUpdated");
+  }
+
 }
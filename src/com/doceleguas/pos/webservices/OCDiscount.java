@@ -1,5 +1,7 @@
 package com.doceleguas.pos.webservices;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.codehaus.jettison.json.JSONArray;
@@ -11,6 +13,8 @@ import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.model.pricing.pricelist.PriceList;
 import com.doceleguas.pos.webservices.internal.terminal.OcrePosTerminalSupport;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContext;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
 
 /* TODO: Check  that exists this indexes:
  * m_offer_pricelist: (m_offer_id, m_pricelist_id, isactive)
@@ -34,10 +38,51 @@ public class OCDiscount extends Model {
     Long limit = jsonParams.optLong("limit", 1000);
     String lastId = jsonParams.optString("lastId", null);
     String lastUpdated = jsonParams.optString("lastUpdated", null);
+    List<String> deltaIds = getDeltaIds(jsonParams);
+    String finalQuery = getSqlTemplate(
+        shape(selectList, lastUpdated != null, lastId != null, deltaIds != null),
+        () -> buildSql(selectList, lastUpdated != null, lastId != null, deltaIds != null));
+    String priceListId;
+    String currencyId;
+    OcreTerminalContext terminalContext = OcreTerminalContextCache.getInstance()
+        .getForOrganization(jsonParams.optString("pos", null), organization);
+    if (terminalContext != null && terminalContext.getPriceListId() != null) {
+      priceListId = terminalContext.getPriceListId();
+      currencyId = terminalContext.getCurrencyId();
+    } else {
+      PriceList priceList = OcrePosTerminalSupport.getPriceListByOrgId(organization);
+      priceListId = priceList.getId();
+      currencyId = priceList.getCurrency().getId();
+    }
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(finalQuery);
+    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+    query.setParameter("clientId", client)
+        .setParameter("orgId", organization)
+        .setParameter("limit", limit)
+        .setParameter("priceListId", priceListId)
+        .setParameter("currencyId", currencyId)
+        .setParameterList("orgs",
+            OBContext.getOBContext()
+                .getOrganizationStructureProvider()
+                .getNaturalTree(organization));
+    if (lastId != null) {
+      query.setParameter("lastId", lastId);
+    }
+    if (deltaIds != null) {
+      query.setParameterList("deltaIds", deltaIds);
+    }
+    return query;
+  }
+
+  private String buildSql(String selectList, boolean incremental, boolean hasLastId,
+      boolean delta) {
     StringBuilder sql = new StringBuilder();
 
     sql.append("SELECT ");
     sql.append(selectList);
+    if (delta) {
+      sql.append("    ,e.m_offer_id AS \"" + DELTA_ID_ALIAS + "\"");
+    }
     sql.append("    ,e.isactive ");
     sql.append("    ,CAST(bp_cat.js AS text) AS \"" + FILTER_BPCATEGORY_ALIAS + "\"");
     sql.append("    ,CAST(bp_part.js AS text) AS \"" + FILTER_BPARTNER_ALIAS + "\"");
@@ -146,34 +191,19 @@ public class OCDiscount extends Model {
     sql.append("          ) ");
     sql.append("      END ");
 
-    if (lastUpdated != null) {
+    if (delta) {
+      sql.append(" AND e.m_offer_id IN :deltaIds ");
+    } else if (incremental) {
       sql.append(" AND e.updated > :lastUpdated ");
     } else {
       sql.append("  AND e.IsActive='Y' ");
     }
-    if (lastId != null) {
+    if (hasLastId) {
       sql.append(" AND e.m_offer_id > :lastId ");
     }
     sql.append(" ORDER  BY e.m_offer_id ");
     sql.append(" LIMIT :limit ");
-
-    String finalQuery = sql.toString();
-    PriceList priceList = OcrePosTerminalSupport.getPriceListByOrgId(organization);
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(finalQuery);
-    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameter("clientId", client)
-        .setParameter("orgId", organization)
-        .setParameter("limit", limit)
-        .setParameter("priceListId", priceList.getId())
-        .setParameter("currencyId", priceList.getCurrency().getId())
-        .setParameterList("orgs",
-            OBContext.getOBContext()
-                .getOrganizationStructureProvider()
-                .getNaturalTree(organization));
-    if (lastId != null) {
-      query.setParameter("lastId", lastId);
-    }
-    return query;
+    return sql.toString();
   }
 
   @Override
@@ -207,4 +237,28 @@ public class OCDiscount extends Model {
     return "Discount";
   }
 
+  @Override
+  public boolean hasChangeLog() {
+    return true;
+  }
+
+  @Override
+  public String getSnapshotScope(JSONObject jsonParams) throws JSONException {
+    // Runs on every request, so the price list comes from the cached terminal context
+    String organization = jsonParams.getString("organization");
+    OcreTerminalContext terminalContext = OcreTerminalContextCache.getInstance()
+        .getForOrganization(jsonParams.optString("pos", null), organization);
+    String priceListId = terminalContext != null && terminalContext.getPriceListId() != null
+        ? terminalContext.getPriceListId()
+        : OcrePosTerminalSupport.getPriceListByOrgId(organization).getId();
+    return jsonParams.getString("client") + "|" + priceListId;
+  }
+
+  @Override
+  public List<String> getSnapshotTables() {
+    return Arrays.asList("m_offer", "m_offer_bp_group", "m_offer_bpartner", "m_offer_prod_cat",
+        "m_offer_product", "m_offer_incompatibility", "m_offer_pricelist",
+        "m_offer_organization", "c_bp_group", "c_bpartner", "m_product_category", "m_product");
+  }
+
 }
@@ -0,0 +1,196 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.jmx.MBeanRegistry;
+
+import com.doceleguas.pos.webservices.orders.loader.OCOrderImportConstants;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Admission control of SaveOrder: rejects new tickets of an organization whose
+ * {@value OCOrderImportConstants#TYPE_OF_DATA} backlog is above the high-water mark, so a spike
+ * does not grow the queue without bound. Follows the load shedding of
+ * {@link OCMobileCoreLoginController}.
+ *
+ * The backlog (entries in {@code Initial} status) and the drain rate (entries imported during
+ * the last minute) of every organization are sampled from {@code C_IMPORT_ENTRY} at most once per
+ * sample interval. A rejected request is told to retry after the time the backlog above the mark
+ * takes to drain at the measured rate.
+ *
+ * Settings (Openbravo.properties or system properties), also available as the
+ * {@code OCWSOrderAdmissionController} MBean:
+ * <ul>
+ * <li>ocws.saveOrder.admission.highWaterMark entries per organization, 0 disables it (default
+ * 0)</li>
+ * <li>ocws.saveOrder.admission.sampleInterval milliseconds between samples (default 2000)</li>
+ * <li>ocws.saveOrder.admission.maxRetryAfter seconds (default 300)</li>
+ * </ul>
+ */
+public class OCOrderAdmissionController implements OCOrderAdmissionControllerMBean {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String SAMPLE_SQL = "select ad_org_id,"
+      + " sum(case when importstatus = 'Initial' then 1 else 0 end),"
+      + " sum(case when importstatus = 'Processed' and imported >= now() - interval '1 minute'"
+      + " then 1 else 0 end)"
+      + " from c_import_entry where typeofdata = ?"
+      + " and (importstatus = 'Initial' or imported >= now() - interval '1 minute')"
+      + " group by ad_org_id";
+  private static final long MIN_RETRY_AFTER = 1;
+
+  private static final OCOrderAdmissionController INSTANCE = new OCOrderAdmissionController();
+
+  private final long sampleIntervalMillis;
+  private final long maxRetryAfter;
+  private volatile long highWaterMark;
+  private volatile Sample sample = new Sample(0, Collections.emptyMap(), Collections.emptyMap());
+  private final AtomicLong rejectedOrders = new AtomicLong();
+
+  public static OCOrderAdmissionController getInstance() {
+    return INSTANCE;
+  }
+
+  private OCOrderAdmissionController() {
+    setHighWaterMark(OcwsProperties.getLong("ocws.saveOrder.admission.highWaterMark", 0));
+    sampleIntervalMillis = OcwsProperties.getLong("ocws.saveOrder.admission.sampleInterval",
+        2000);
+    maxRetryAfter = OcwsProperties.getLong("ocws.saveOrder.admission.maxRetryAfter", 300);
+    MBeanRegistry.registerMBean("OCWSOrderAdmissionController", this);
+  }
+
+  /**
+   * Returns 0 if a new ticket of the organization is accepted, otherwise the seconds the client
+   * should wait before retrying. A resend of a queued ticket is still accepted above the mark, so
+   * the caller reports the tickets it actually rejects with {@link #recordRejection}.
+   */
+  public long getRetryAfter(String orgId) {
+    long mark = highWaterMark;
+    if (mark <= 0) {
+      return 0;
+    }
+    Sample current = getSample();
+    long depth = current.depthByOrg.getOrDefault(orgId, 0L);
+    if (depth < mark) {
+      return 0;
+    }
+    double drainRate = current.drainedByOrg.getOrDefault(orgId, 0L) / 60d;
+    long retryAfter = drainRate > 0 ? (long) Math.ceil((depth - mark + 1) / drainRate)
+        : maxRetryAfter;
+    return Math.max(MIN_RETRY_AFTER, Math.min(maxRetryAfter, retryAfter));
+  }
+
+  /** Counts a ticket of the organization rejected with the given retry after. */
+  public void recordRejection(String orgId, long retryAfter) {
+    rejectedOrders.incrementAndGet();
+    log.warn("SaveOrder rejected for organization {}: queue depth {}, high-water mark {},"
+        + " retry after {}s", orgId, sample.depthByOrg.getOrDefault(orgId, 0L), highWaterMark,
+        retryAfter);
+  }
+
+  /** Backlog of every organization with entries waiting, as of the last sample. */
+  public Map<String, Long> getQueueDepths() {
+    return getSample().depthByOrg;
+  }
+
+  private Sample getSample() {
+    Sample current = sample;
+    if (System.currentTimeMillis() - current.takenAt < sampleIntervalMillis) {
+      return current;
+    }
+    synchronized (this) {
+      current = sample;
+      if (System.currentTimeMillis() - current.takenAt < sampleIntervalMillis) {
+        return current;
+      }
+      try {
+        sample = current = takeSample();
+      } catch (Exception e) {
+        // Keep admitting with the previous sample rather than failing the requests
+        log.error("Could not sample the OCWS_Order queue", e);
+        sample = current = new Sample(System.currentTimeMillis(), current.depthByOrg,
+            current.drainedByOrg);
+      }
+      return current;
+    }
+  }
+
+  private Sample takeSample() throws Exception {
+    Map<String, Long> depthByOrg = new HashMap<>();
+    Map<String, Long> drainedByOrg = new HashMap<>();
+    Connection conn = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement ps = conn.prepareStatement(SAMPLE_SQL)) {
+      ps.setString(1, OCOrderImportConstants.TYPE_OF_DATA);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          if (rs.getLong(2) > 0) {
+            depthByOrg.put(rs.getString(1), rs.getLong(2));
+          }
+          drainedByOrg.put(rs.getString(1), rs.getLong(3));
+        }
+      }
+    }
+    return new Sample(System.currentTimeMillis(), Collections.unmodifiableMap(depthByOrg),
+        Collections.unmodifiableMap(drainedByOrg));
+  }
+
+  @Override
+  public long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  @Override
+  public void setHighWaterMark(long highWaterMark) {
+    log.info("Setting OCWS_Order queue high-water mark to {}", highWaterMark);
+    this.highWaterMark = highWaterMark;
+  }
+
+  @Override
+  public long getQueueDepth() {
+    return sample.depthByOrg.values().stream().mapToLong(Long::longValue).sum();
+  }
+
+  @Override
+  public double getDrainRate() {
+    return sample.drainedByOrg.values().stream().mapToLong(Long::longValue).sum() / 60d;
+  }
+
+  @Override
+  public String getQueueDepthByOrganization() {
+    return sample.depthByOrg.toString();
+  }
+
+  @Override
+  public long getRejectedOrders() {
+    return rejectedOrders.get();
+  }
+
+  private static class Sample {
+    private final long takenAt;
+    private final Map<String, Long> depthByOrg;
+    private final Map<String, Long> drainedByOrg;
+
+    private Sample(long takenAt, Map<String, Long> depthByOrg, Map<String, Long> drainedByOrg) {
+      this.takenAt = takenAt;
+      this.depthByOrg = depthByOrg;
+      this.drainedByOrg = drainedByOrg;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+public interface OCOrderAdmissionControllerMBean {
+
+  long getHighWaterMark();
+
+  void setHighWaterMark(long highWaterMark);
+
+  long getQueueDepth();
+
+  double getDrainRate();
+
+  String getQueueDepthByOrganization();
+
+  long getRejectedOrders();
+
+}
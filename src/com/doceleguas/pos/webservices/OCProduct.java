@@ -1,6 +1,8 @@
 package com.doceleguas.pos.webservices;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,6 +13,8 @@ import org.hibernate.transform.Transformers;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.mobile.core.utils.OBMOBCUtils;
 import com.doceleguas.pos.webservices.internal.terminal.OcrePosTerminalSupport;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContext;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
 
 public class OCProduct extends Model {
   private static final Logger log = LogManager.getLogger();
@@ -23,7 +27,30 @@ public class OCProduct extends Model {
     String lastId = jsonParams.optString("lastId", null);
     String lastUpdated = jsonParams.optString("lastUpdated", null);
     String selectList = jsonParams.getString("selectList");
+    List<String> deltaIds = getDeltaIds(jsonParams);
+    String sql = getSqlTemplate(
+        shape(selectList, lastUpdated != null, lastId != null, deltaIds != null),
+        () -> buildSql(selectList, lastUpdated != null, lastId != null, deltaIds != null));
+    final String productListId = getProductListId(jsonParams);
+    final String priceListVersionId = getPriceListVersionId(jsonParams);
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql);
+    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+    query.setParameter("productListId", productListId)
+        .setParameter("priceLisVersionId", priceListVersionId)
+        .setParameter("limit", limit);
+    if (lastId != null) {
+      query.setParameter("lastId", lastId);
+    }
+    if (deltaIds != null) {
+      query.setParameterList("deltaIds", deltaIds);
+    }
+    return query;
+  }
+
+  private static String buildSql(String selectList, boolean incremental, boolean hasLastId,
+      boolean delta) {
     String sql = "SELECT DISTINCT " + selectList + ", " //
+        + (delta ? "e.m_product_id AS \"" + DELTA_ID_ALIAS + "\", " : "") //
         + "e.isactive as \"isActive\" " //
         + " FROM  m_product e" //
         + "       LEFT OUTER JOIN ad_image adimage1_" //
@@ -41,33 +68,19 @@ public class OCProduct extends Model {
         + "       AND e.m_product_category_id = m_product_category_.m_product_category_id" //
         + "       AND m_productprice_.m_pricelist_version_id = :priceLisVersionId" //
         + "       AND obretcopro_.obretco_productlist_id = :productListId";
-    if (lastUpdated != null) {
+    if (delta) {
+      sql += " AND e.m_product_id IN :deltaIds";
+    } else if (incremental) {
       sql += " AND e.updated > :lastUpdated";
     } else {
       sql += "  AND e.IsActive='Y'";
     }
-    if (lastId != null) {
+    if (hasLastId) {
       sql += " AND e.m_product_id > :lastId";
     }
     sql += " ORDER  BY e.m_product_id " //
         + " LIMIT :limit";
-    //final Date terminalDate = getTerminalDate(jsonParams);
-    final Date terminalDate = new Date();
-    String organization = jsonParams.getString("organization");
-    final String posId = getTerminalId(jsonParams);
-    final String productListId = OcrePosTerminalSupport.getProductListIdForPosterminalId(posId);
-    final String priceListVersionId = OcrePosTerminalSupport
-        .getPriceListVersionByOrgId(organization, terminalDate)
-        .getId();
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql);
-    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameter("productListId", productListId)
-        .setParameter("priceLisVersionId", priceListVersionId)
-        .setParameter("limit", limit);
-    if (lastId != null) {
-      query.setParameter("lastId", lastId);
-    }
-    return query;
+    return sql;
   }
 
   @Override
@@ -75,6 +88,40 @@ public class OCProduct extends Model {
     return "Product";
   }
 
+  @Override
+  public boolean hasChangeLog() {
+    return true;
+  }
+
+  @Override
+  public String getSnapshotScope(JSONObject jsonParams) throws JSONException {
+    return getProductListId(jsonParams) + "|" + getPriceListVersionId(jsonParams);
+  }
+
+  @Override
+  public List<String> getSnapshotTables() {
+    return Arrays.asList("m_product", "m_productprice", "obretco_prol_product");
+  }
+
+  private static String getProductListId(JSONObject jsonParams) {
+    OcreTerminalContext context = OcreTerminalContextCache.getInstance()
+        .get(getTerminalId(jsonParams));
+    return context != null ? context.getProductListId() : null;
+  }
+
+  private static String getPriceListVersionId(JSONObject jsonParams) throws JSONException {
+    OcreTerminalContext context = OcreTerminalContextCache.getInstance()
+        .getForOrganization(getTerminalId(jsonParams), jsonParams.getString("organization"));
+    if (context != null && context.getPriceListVersionId() != null) {
+      return context.getPriceListVersionId();
+    }
+    // final Date terminalDate = getTerminalDate(jsonParams);
+    final Date terminalDate = new Date();
+    return OcrePosTerminalSupport
+        .getPriceListVersionByOrgId(jsonParams.getString("organization"), terminalDate)
+        .getId();
+  }
+
   private static String getTerminalId(final JSONObject jsonsent) {
     String terminalId = null;
     try {
@@ -15,6 +15,8 @@ import org.hibernate.transform.Transformers;
 import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBDal;
 import com.doceleguas.pos.webservices.internal.terminal.OcrePosTerminalSupport;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContext;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
 
 public class OCProductMulti extends Model {
   private static final Logger log = LogManager.getLogger();
@@ -24,30 +26,25 @@ public class OCProductMulti extends Model {
   public static final String QUERY_PACKS = "packs";
   public static final String QUERY_GENERIC = "generic";
 
-  private String productListId;
-  private String priceListVersionId;
-  private String orgId;
-  private Date terminalDate;
-
   @Override
   public List<NativeQuery<?>> createQueries(JSONObject jsonParams) throws JSONException {
     List<NativeQuery<?>> queries = new ArrayList<>();
+    QueryContext context = resolveContext(jsonParams);
+    for (String queryType : getQueryTypes(jsonParams)) {
+      queries.add(createQuery(jsonParams, queryType, context));
+    }
+    return queries;
+  }
 
-    String posId = getTerminalId(jsonParams);
-    String organization = jsonParams.getString("organization");
-
-    terminalDate = new Date();
-    productListId = OcrePosTerminalSupport.getProductListIdForPosterminalId(posId);
-    priceListVersionId = OcrePosTerminalSupport.getPriceListVersionByOrgId(organization, terminalDate)
-        .getId();
-    orgId = OBContext.getOBContext().getCurrentOrganization().getId();
-
-    queries.add(createRegularProductsQuery(jsonParams));
-    // queries.add(createCrossStoreProductsQuery(jsonParams));
-    // queries.add(createPacksQuery(jsonParams));
-    // queries.add(createGenericProductsQuery(jsonParams));
+  @Override
+  public int getQueryCount(JSONObject jsonParams) {
+    return getQueryTypes(jsonParams).size();
+  }
 
-    return queries;
+  @Override
+  public NativeQuery<?> createQuery(JSONObject jsonParams, int index) throws JSONException {
+    return createQuery(jsonParams, getQueryTypes(jsonParams).get(index),
+        resolveContext(jsonParams));
   }
 
   @Override
@@ -55,48 +52,104 @@ public class OCProductMulti extends Model {
     return createQueries(jsonParams).get(0);
   }
 
-  private NativeQuery<?> createRegularProductsQuery(JSONObject jsonParams) throws JSONException {
+  /**
+   * Queries requested in the comma separated {@code queryTypes} parameter, in the order they are
+   * returned. Only the regular products query runs by default.
+   */
+  private static List<String> getQueryTypes(JSONObject jsonParams) {
+    List<String> queryTypes = new ArrayList<>();
+    for (String queryType : jsonParams.optString("queryTypes", QUERY_REGULAR).split(",")) {
+      String type = queryType.trim();
+      if ((QUERY_REGULAR.equals(type) || QUERY_CROSSSTORE.equals(type) || QUERY_PACKS.equals(type)
+          || QUERY_GENERIC.equals(type)) && !queryTypes.contains(type)) {
+        queryTypes.add(type);
+      }
+    }
+    if (queryTypes.isEmpty()) {
+      queryTypes.add(QUERY_REGULAR);
+    }
+    return queryTypes;
+  }
+
+  private NativeQuery<?> createQuery(JSONObject jsonParams, String queryType,
+      QueryContext context) throws JSONException {
+    switch (queryType) {
+      case QUERY_CROSSSTORE:
+        return createCrossStoreProductsQuery(jsonParams, context);
+      case QUERY_PACKS:
+        return createPacksQuery(jsonParams, context);
+      case QUERY_GENERIC:
+        return createGenericProductsQuery(jsonParams, context);
+      default:
+        return createRegularProductsQuery(jsonParams, context);
+    }
+  }
+
+  private QueryContext resolveContext(JSONObject jsonParams) throws JSONException {
+    String posId = getTerminalId(jsonParams);
+    String organization = jsonParams.getString("organization");
+    Date terminalDate = new Date();
+    OcreTerminalContext terminalContext = OcreTerminalContextCache.getInstance().get(posId);
+    String productListId = terminalContext != null ? terminalContext.getProductListId() : null;
+    String priceListVersionId = terminalContext != null
+        && organization.equals(terminalContext.getOrganizationId())
+            ? terminalContext.getPriceListVersionId()
+            : null;
+    if (priceListVersionId == null) {
+      priceListVersionId = OcrePosTerminalSupport
+          .getPriceListVersionByOrgId(organization, terminalDate)
+          .getId();
+    }
+    return new QueryContext(productListId, priceListVersionId,
+        OBContext.getOBContext().getCurrentOrganization().getId(), terminalDate);
+  }
+
+  private NativeQuery<?> createRegularProductsQuery(JSONObject jsonParams, QueryContext context) throws JSONException {
     String selectList = jsonParams.getString("selectList");
     Long limit = jsonParams.optLong("limit", 1000);
     String lastId = jsonParams.optString("lastId", null);
     String lastUpdated = jsonParams.optString("lastUpdated", null);
 
-    StringBuilder sql = new StringBuilder();
-    sql.append("SELECT DISTINCT ").append(selectList).append(", ");
-    sql.append("e.isactive as \"isActive\", ");
-    sql.append("'");
-    sql.append(QUERY_REGULAR);
-    sql.append("' as \"_queryType\" ");
-    sql.append("FROM m_product e ");
-    sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
-    sql.append(
-        "LEFT OUTER JOIN m_attributeset attributes2_ ON e.m_attributeset_id = attributes2_.m_attributeset_id ");
-    sql.append(
-        "INNER JOIN obretco_prol_product obretcopro_ ON e.m_product_id = obretcopro_.m_product_id ");
-    sql.append(
-        "INNER JOIN m_productprice m_productprice_ ON e.m_product_id = m_productprice_.m_product_id ");
-    sql.append("INNER JOIN c_uom c_uom_ ON e.c_uom_id = c_uom_.c_uom_id ");
-    sql.append(
-        "INNER JOIN m_product_category m_product_category_ ON e.m_product_category_id = m_product_category_.m_product_category_id ");
-    sql.append("WHERE e.c_uom_id = c_uom_.c_uom_id ");
-    sql.append("AND e.m_product_category_id = m_product_category_.m_product_category_id ");
-    sql.append("AND m_productprice_.m_pricelist_version_id = :priceListVersionId ");
-    sql.append("AND obretcopro_.obretco_productlist_id = :productListId ");
-
-    if (lastUpdated != null) {
-      sql.append("AND e.updated > :lastUpdated ");
-    } else {
-      sql.append("AND e.IsActive='Y' ");
-    }
-    if (lastId != null) {
-      sql.append("AND e.m_product_id > :lastId ");
-    }
-    sql.append("ORDER BY e.m_product_id LIMIT :limit");
-
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql.toString());
+    String sqlText = getSqlTemplate(
+        shape(QUERY_REGULAR, selectList, lastUpdated != null, lastId != null), () -> {
+      StringBuilder sql = new StringBuilder();
+      sql.append("SELECT DISTINCT ").append(selectList).append(", ");
+      sql.append("e.isactive as \"isActive\", ");
+      sql.append("'");
+      sql.append(QUERY_REGULAR);
+      sql.append("' as \"_queryType\" ");
+      sql.append("FROM m_product e ");
+      sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
+      sql.append(
+          "LEFT OUTER JOIN m_attributeset attributes2_ ON e.m_attributeset_id = attributes2_.m_attributeset_id ");
+      sql.append(
+          "INNER JOIN obretco_prol_product obretcopro_ ON e.m_product_id = obretcopro_.m_product_id ");
+      sql.append(
+          "INNER JOIN m_productprice m_productprice_ ON e.m_product_id = m_productprice_.m_product_id ");
+      sql.append("INNER JOIN c_uom c_uom_ ON e.c_uom_id = c_uom_.c_uom_id ");
+      sql.append(
+          "INNER JOIN m_product_category m_product_category_ ON e.m_product_category_id = m_product_category_.m_product_category_id ");
+      sql.append("WHERE e.c_uom_id = c_uom_.c_uom_id ");
+      sql.append("AND e.m_product_category_id = m_product_category_.m_product_category_id ");
+      sql.append("AND m_productprice_.m_pricelist_version_id = :priceListVersionId ");
+      sql.append("AND obretcopro_.obretco_productlist_id = :productListId ");
+
+      if (lastUpdated != null) {
+        sql.append("AND e.updated > :lastUpdated ");
+      } else {
+        sql.append("AND e.IsActive='Y' ");
+      }
+      if (lastId != null) {
+        sql.append("AND e.m_product_id > :lastId ");
+      }
+      sql.append("ORDER BY e.m_product_id LIMIT :limit");
+      return sql.toString();
+    });
+
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sqlText);
     query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameter("productListId", productListId)
-        .setParameter("priceListVersionId", priceListVersionId)
+    query.setParameter("productListId", context.productListId)
+        .setParameter("priceListVersionId", context.priceListVersionId)
         .setParameter("limit", limit);
 
     if (lastId != null) {
@@ -105,61 +158,65 @@ public class OCProductMulti extends Model {
     return query;
   }
 
-  private NativeQuery<?> createCrossStoreProductsQuery(JSONObject jsonParams) throws JSONException {
+  private NativeQuery<?> createCrossStoreProductsQuery(JSONObject jsonParams, QueryContext context) throws JSONException {
     String selectList = jsonParams.getString("selectList");
     Long limit = jsonParams.optLong("limit", 1000);
     String lastId = jsonParams.optString("lastId", null);
     String lastUpdated = jsonParams.optString("lastUpdated", null);
 
-    String orgIds = jsonParams.optString("orgIds", orgId);
+    String orgIds = jsonParams.optString("orgIds", context.orgId);
     List<String> orgList = new ArrayList<>();
-    orgList.add(orgId);
-
-    StringBuilder sql = new StringBuilder();
-    sql.append("SELECT DISTINCT ").append(selectList).append(", ");
-    sql.append("e.isactive as \"isActive\", ");
-    sql.append("'").append(QUERY_CROSSSTORE).append("' as \"_queryType\" ");
-    sql.append("FROM m_product e ");
-    sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
-    sql.append(
-        "LEFT OUTER JOIN m_attributeset attributes2_ ON e.m_attributeset_id = attributes2_.m_attributeset_id ");
-    sql.append("LEFT JOIN m_attributeuse eau on e.m_attributeset_id = eau.m_attributeset_id ");
-    sql.append("WHERE e.isactive = 'Y' ");
-    sql.append("AND EXISTS ( ");
-    sql.append("  SELECT 1 FROM ad_org o ");
-    sql.append("  WHERE o.ad_org_id IN (:orgIds) ");
-    sql.append("  AND EXISTS ( ");
-    sql.append("    SELECT 1 FROM obretco_prol_product pli ");
-    sql.append("    WHERE pli.m_product_id = e.m_product_id ");
-    sql.append("    AND pli.obretco_productlist_id = o.obretco_productlist_id ");
-    sql.append("  ) ");
-    sql.append("  AND EXISTS ( ");
-    sql.append("    SELECT 1 FROM m_productprice ppp ");
-    sql.append(
-        "    JOIN m_pricelist_version plv ON ppp.m_pricelist_version_id = plv.m_pricelist_version_id ");
-    sql.append("    WHERE ppp.m_product_id = e.m_product_id ");
-    sql.append("    AND plv.m_pricelist_id = o.obretco_pricelist_id ");
-    sql.append("    AND plv.validfromdate <= :terminalDate ");
-    sql.append("  ) ");
-    sql.append(") ");
-    sql.append("AND NOT EXISTS ( ");
-    sql.append("  SELECT 1 FROM obretco_prol_product pli ");
-    sql.append("  WHERE pli.m_product_id = e.m_product_id ");
-    sql.append("  AND pli.obretco_productlist_id = :productListId ");
-    sql.append(") ");
-
-    if (lastUpdated != null) {
-      sql.append("AND e.updated > :lastUpdated ");
-    }
-    if (lastId != null) {
-      sql.append("AND e.m_product_id > :lastId ");
-    }
-    sql.append("ORDER BY e.m_product_id LIMIT :limit");
-
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql.toString());
+    orgList.add(context.orgId);
+
+    String sqlText = getSqlTemplate(
+        shape(QUERY_CROSSSTORE, selectList, lastUpdated != null, lastId != null), () -> {
+      StringBuilder sql = new StringBuilder();
+      sql.append("SELECT DISTINCT ").append(selectList).append(", ");
+      sql.append("e.isactive as \"isActive\", ");
+      sql.append("'").append(QUERY_CROSSSTORE).append("' as \"_queryType\" ");
+      sql.append("FROM m_product e ");
+      sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
+      sql.append(
+          "LEFT OUTER JOIN m_attributeset attributes2_ ON e.m_attributeset_id = attributes2_.m_attributeset_id ");
+      sql.append("LEFT JOIN m_attributeuse eau on e.m_attributeset_id = eau.m_attributeset_id ");
+      sql.append("WHERE e.isactive = 'Y' ");
+      sql.append("AND EXISTS ( ");
+      sql.append("  SELECT 1 FROM ad_org o ");
+      sql.append("  WHERE o.ad_org_id IN (:orgIds) ");
+      sql.append("  AND EXISTS ( ");
+      sql.append("    SELECT 1 FROM obretco_prol_product pli ");
+      sql.append("    WHERE pli.m_product_id = e.m_product_id ");
+      sql.append("    AND pli.obretco_productlist_id = o.obretco_productlist_id ");
+      sql.append("  ) ");
+      sql.append("  AND EXISTS ( ");
+      sql.append("    SELECT 1 FROM m_productprice ppp ");
+      sql.append(
+          "    JOIN m_pricelist_version plv ON ppp.m_pricelist_version_id = plv.m_pricelist_version_id ");
+      sql.append("    WHERE ppp.m_product_id = e.m_product_id ");
+      sql.append("    AND plv.m_pricelist_id = o.obretco_pricelist_id ");
+      sql.append("    AND plv.validfromdate <= :terminalDate ");
+      sql.append("  ) ");
+      sql.append(") ");
+      sql.append("AND NOT EXISTS ( ");
+      sql.append("  SELECT 1 FROM obretco_prol_product pli ");
+      sql.append("  WHERE pli.m_product_id = e.m_product_id ");
+      sql.append("  AND pli.obretco_productlist_id = :productListId ");
+      sql.append(") ");
+
+      if (lastUpdated != null) {
+        sql.append("AND e.updated > :lastUpdated ");
+      }
+      if (lastId != null) {
+        sql.append("AND e.m_product_id > :lastId ");
+      }
+      sql.append("ORDER BY e.m_product_id LIMIT :limit");
+      return sql.toString();
+    });
+
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sqlText);
     query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameter("productListId", productListId)
-        .setParameter("terminalDate", new java.sql.Timestamp(terminalDate.getTime()))
+    query.setParameter("productListId", context.productListId)
+        .setParameter("terminalDate", new java.sql.Timestamp(context.terminalDate.getTime()))
         .setParameterList("orgIds", orgList)
         .setParameter("limit", limit);
 
@@ -169,7 +226,7 @@ public class OCProductMulti extends Model {
     return query;
   }
 
-  private NativeQuery<?> createPacksQuery(JSONObject jsonParams) throws JSONException {
+  private NativeQuery<?> createPacksQuery(JSONObject jsonParams, QueryContext context) throws JSONException {
     String selectList = jsonParams.getString("selectList");
     Long limit = jsonParams.optLong("limit", 1000);
     String lastId = jsonParams.optString("lastId", null);
@@ -177,72 +234,76 @@ public class OCProductMulti extends Model {
 
     final Calendar now = Calendar.getInstance();
 
-    StringBuilder sql = new StringBuilder();
-    sql.append("SELECT DISTINCT ").append(selectList).append(", ");
-    sql.append("e.isactive as \"isActive\", ");
-    sql.append("'").append(QUERY_PACKS).append("' as \"_queryType\" ");
-    sql.append("FROM m_offer e ");
-    sql.append("JOIN m_discounttype dt ON e.m_discounttype_id = dt.m_discounttype_id ");
-    sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
-    sql.append("WHERE dt.obposiscategory = true ");
-    sql.append("AND dt.isactive = 'Y' ");
-    sql.append("AND e.isactive = 'Y' ");
-    sql.append("AND e.startingdate <= :startingDate ");
-    sql.append("AND (e.endingdate IS NULL OR e.endingdate >= :endingDate) ");
-
-    sql.append("AND ((e.includedproducts = 'N' ");
-    sql.append("AND NOT EXISTS ( ");
-    sql.append("  SELECT 1 FROM m_discount_product pap ");
-    sql.append("  WHERE pap.m_discount_id = e.m_discount_id ");
-    sql.append("  AND pap.isactive = 'Y' ");
-    sql.append("  AND NOT EXISTS ( ");
-    sql.append("    SELECT 1 FROM obretco_prol_product pli ");
-    sql.append("    WHERE pli.m_product_id = pap.m_product_id ");
-    sql.append("    AND pli.obretco_productlist_id = :productListId ");
-    sql.append("    AND pli.isactive = 'Y' ");
-    sql.append("  ) ");
-    sql.append(")) ");
-
-    sql.append("OR (e.includedproducts = 'Y' ");
-    sql.append("AND NOT EXISTS ( ");
-    sql.append("  SELECT 1 FROM m_discount_product pap ");
-    sql.append("  WHERE pap.m_discount_id = e.m_discount_id ");
-    sql.append("  AND pap.isactive = 'Y' ");
-    sql.append("  AND EXISTS ( ");
-    sql.append("    SELECT 1 FROM obretco_prol_product pli ");
-    sql.append("    WHERE pli.m_product_id = pap.m_product_id ");
-    sql.append("    AND pli.obretco_productlist_id = :productListId ");
-    sql.append("    AND pli.isactive = 'Y' ");
-    sql.append("  ) ");
-    sql.append("))) ");
-
-    sql.append("AND ((e.includedorganizations = 'N' ");
-    sql.append("AND EXISTS ( ");
-    sql.append("  SELECT 1 FROM m_discount_organization pao ");
-    sql.append("  WHERE pao.m_discount_id = e.m_discount_id ");
-    sql.append("  AND pao.ad_org_id = :orgId ");
-    sql.append("  AND pao.isactive = 'Y' ");
-    sql.append(")) ");
-    sql.append("OR (e.includedorganizations = 'Y' ");
-    sql.append("AND NOT EXISTS ( ");
-    sql.append("  SELECT 1 FROM m_discount_organization pao ");
-    sql.append("  WHERE pao.m_discount_id = e.m_discount_id ");
-    sql.append("  AND pao.ad_org_id = :orgId ");
-    sql.append("  AND pao.isactive = 'Y' ");
-    sql.append("))) ");
-
-    if (lastUpdated != null) {
-      sql.append("AND e.updated > :lastUpdated ");
-    }
-    if (lastId != null) {
-      sql.append("AND e.m_discount_id > :lastId ");
-    }
-    sql.append("ORDER BY e.m_discount_id LIMIT :limit");
-
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql.toString());
+    String sqlText = getSqlTemplate(
+        shape(QUERY_PACKS, selectList, lastUpdated != null, lastId != null), () -> {
+      StringBuilder sql = new StringBuilder();
+      sql.append("SELECT DISTINCT ").append(selectList).append(", ");
+      sql.append("e.isactive as \"isActive\", ");
+      sql.append("'").append(QUERY_PACKS).append("' as \"_queryType\" ");
+      sql.append("FROM m_offer e ");
+      sql.append("JOIN m_discounttype dt ON e.m_discounttype_id = dt.m_discounttype_id ");
+      sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
+      sql.append("WHERE dt.obposiscategory = true ");
+      sql.append("AND dt.isactive = 'Y' ");
+      sql.append("AND e.isactive = 'Y' ");
+      sql.append("AND e.startingdate <= :startingDate ");
+      sql.append("AND (e.endingdate IS NULL OR e.endingdate >= :endingDate) ");
+
+      sql.append("AND ((e.includedproducts = 'N' ");
+      sql.append("AND NOT EXISTS ( ");
+      sql.append("  SELECT 1 FROM m_discount_product pap ");
+      sql.append("  WHERE pap.m_discount_id = e.m_discount_id ");
+      sql.append("  AND pap.isactive = 'Y' ");
+      sql.append("  AND NOT EXISTS ( ");
+      sql.append("    SELECT 1 FROM obretco_prol_product pli ");
+      sql.append("    WHERE pli.m_product_id = pap.m_product_id ");
+      sql.append("    AND pli.obretco_productlist_id = :productListId ");
+      sql.append("    AND pli.isactive = 'Y' ");
+      sql.append("  ) ");
+      sql.append(")) ");
+
+      sql.append("OR (e.includedproducts = 'Y' ");
+      sql.append("AND NOT EXISTS ( ");
+      sql.append("  SELECT 1 FROM m_discount_product pap ");
+      sql.append("  WHERE pap.m_discount_id = e.m_discount_id ");
+      sql.append("  AND pap.isactive = 'Y' ");
+      sql.append("  AND EXISTS ( ");
+      sql.append("    SELECT 1 FROM obretco_prol_product pli ");
+      sql.append("    WHERE pli.m_product_id = pap.m_product_id ");
+      sql.append("    AND pli.obretco_productlist_id = :productListId ");
+      sql.append("    AND pli.isactive = 'Y' ");
+      sql.append("  ) ");
+      sql.append("))) ");
+
+      sql.append("AND ((e.includedorganizations = 'N' ");
+      sql.append("AND EXISTS ( ");
+      sql.append("  SELECT 1 FROM m_discount_organization pao ");
+      sql.append("  WHERE pao.m_discount_id = e.m_discount_id ");
+      sql.append("  AND pao.ad_org_id = :orgId ");
+      sql.append("  AND pao.isactive = 'Y' ");
+      sql.append(")) ");
+      sql.append("OR (e.includedorganizations = 'Y' ");
+      sql.append("AND NOT EXISTS ( ");
+      sql.append("  SELECT 1 FROM m_discount_organization pao ");
+      sql.append("  WHERE pao.m_discount_id = e.m_discount_id ");
+      sql.append("  AND pao.ad_org_id = :orgId ");
+      sql.append("  AND pao.isactive = 'Y' ");
+      sql.append("))) ");
+
+      if (lastUpdated != null) {
+        sql.append("AND e.updated > :lastUpdated ");
+      }
+      if (lastId != null) {
+        sql.append("AND e.m_discount_id > :lastId ");
+      }
+      sql.append("ORDER BY e.m_discount_id LIMIT :limit");
+      return sql.toString();
+    });
+
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sqlText);
     query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameter("productListId", productListId)
-        .setParameter("orgId", orgId)
+    query.setParameter("productListId", context.productListId)
+        .setParameter("orgId", context.orgId)
         .setParameter("limit", limit)
         .setParameter("startingDate", now.getTime())
         .setParameter("endingDate", now.getTime());
@@ -254,48 +315,52 @@ public class OCProductMulti extends Model {
     return query;
   }
 
-  private NativeQuery<?> createGenericProductsQuery(JSONObject jsonParams) throws JSONException {
+  private NativeQuery<?> createGenericProductsQuery(JSONObject jsonParams, QueryContext context) throws JSONException {
     String selectList = jsonParams.getString("selectList");
     Long limit = jsonParams.optLong("limitGeneric", 1000);
     String lastId = jsonParams.optString("lastId", null);
     String lastUpdated = jsonParams.optString("lastUpdated", null);
 
-    StringBuilder sql = new StringBuilder();
-    sql.append("SELECT DISTINCT ").append(selectList).append(", ");
-    sql.append("e.isactive as \"isActive\", ");
-    sql.append("'").append(QUERY_GENERIC).append("' as \"_queryType\" ");
-    sql.append("FROM m_product e ");
-    sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
-    sql.append(
-        "LEFT OUTER JOIN m_attributeset attributes2_ ON e.m_attributeset_id = attributes2_.m_attributeset_id ");
-    sql.append(
-        "LEFT JOIN m_productprice m_productprice_ ON e.m_product_id = m_productprice_.m_product_id ");
-    sql.append(
-        "LEFT JOIN obretco_prol_product obretcopro_ ON e.m_product_id = obretcopro_.m_product_id ");
-    sql.append("WHERE e.isgeneric = 'Y' ");
-    sql.append("AND e.isactive = 'Y' ");
-    sql.append("AND m_productprice_.m_pricelist_version_id = :priceListVersionId ");
-    sql.append("AND EXISTS ( ");
-    sql.append("  SELECT 1 FROM m_product product2 ");
-    sql.append("  JOIN obretco_prol_product pli2 ON product2.m_product_id = pli2.m_product_id ");
-    sql.append("  JOIN m_productprice ppp2 ON product2.m_product_id = ppp2.m_product_id ");
-    sql.append("  WHERE product2.m_product_id = e.generic_product_id ");
-    sql.append("  AND ppp2.m_pricelist_version_id = :priceListVersionId ");
-    sql.append("  AND pli2.obretco_productlist_id = :productListId ");
-    sql.append(") ");
-
-    if (lastUpdated != null) {
-      sql.append("AND e.updated > :lastUpdated ");
-    }
-    if (lastId != null) {
-      sql.append("AND e.m_product_id > :lastId ");
-    }
-    sql.append("ORDER BY e.m_product_id LIMIT :limit");
-
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql.toString());
+    String sqlText = getSqlTemplate(
+        shape(QUERY_GENERIC, selectList, lastUpdated != null, lastId != null), () -> {
+      StringBuilder sql = new StringBuilder();
+      sql.append("SELECT DISTINCT ").append(selectList).append(", ");
+      sql.append("e.isactive as \"isActive\", ");
+      sql.append("'").append(QUERY_GENERIC).append("' as \"_queryType\" ");
+      sql.append("FROM m_product e ");
+      sql.append("LEFT OUTER JOIN ad_image adimage1_ ON e.ad_image_id = adimage1_.ad_image_id ");
+      sql.append(
+          "LEFT OUTER JOIN m_attributeset attributes2_ ON e.m_attributeset_id = attributes2_.m_attributeset_id ");
+      sql.append(
+          "LEFT JOIN m_productprice m_productprice_ ON e.m_product_id = m_productprice_.m_product_id ");
+      sql.append(
+          "LEFT JOIN obretco_prol_product obretcopro_ ON e.m_product_id = obretcopro_.m_product_id ");
+      sql.append("WHERE e.isgeneric = 'Y' ");
+      sql.append("AND e.isactive = 'Y' ");
+      sql.append("AND m_productprice_.m_pricelist_version_id = :priceListVersionId ");
+      sql.append("AND EXISTS ( ");
+      sql.append("  SELECT 1 FROM m_product product2 ");
+      sql.append("  JOIN obretco_prol_product pli2 ON product2.m_product_id = pli2.m_product_id ");
+      sql.append("  JOIN m_productprice ppp2 ON product2.m_product_id = ppp2.m_product_id ");
+      sql.append("  WHERE product2.m_product_id = e.generic_product_id ");
+      sql.append("  AND ppp2.m_pricelist_version_id = :priceListVersionId ");
+      sql.append("  AND pli2.obretco_productlist_id = :productListId ");
+      sql.append(") ");
+
+      if (lastUpdated != null) {
+        sql.append("AND e.updated > :lastUpdated ");
+      }
+      if (lastId != null) {
+        sql.append("AND e.m_product_id > :lastId ");
+      }
+      sql.append("ORDER BY e.m_product_id LIMIT :limit");
+      return sql.toString();
+    });
+
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sqlText);
     query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameter("productListId", productListId)
-        .setParameter("priceListVersionId", priceListVersionId)
+    query.setParameter("productListId", context.productListId)
+        .setParameter("priceListVersionId", context.priceListVersionId)
         .setParameter("limit", limit);
 
     if (lastId != null) {
@@ -315,6 +380,15 @@ public class OCProductMulti extends Model {
     return "Product1";
   }
 
+  @Override
+  public List<String> getSupportedParameters() {
+    List<String> parameters = super.getSupportedParameters();
+    parameters.add("queryTypes");
+    parameters.add("orgIds");
+    parameters.add("limitGeneric");
+    return parameters;
+  }
+
   private static String getTerminalId(final JSONObject jsonsent) {
     String terminalId = null;
     try {
@@ -324,4 +398,23 @@ public class OCProductMulti extends Model {
     }
     return terminalId;
   }
+
+  /**
+   * Terminal data resolved once per request and shared by its queries. Kept out of the model
+   * fields because model instances are shared between requests.
+   */
+  private static class QueryContext {
+    private final String productListId;
+    private final String priceListVersionId;
+    private final String orgId;
+    private final Date terminalDate;
+
+    private QueryContext(String productListId, String priceListVersionId, String orgId,
+        Date terminalDate) {
+      this.productListId = productListId;
+      this.priceListVersionId = priceListVersionId;
+      this.orgId = orgId;
+      this.terminalDate = terminalDate;
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package com.doceleguas.pos.webservices;
 
 import java.util.Date;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,12 +9,12 @@ import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.transform.Transformers;
+import org.openbravo.base.exception.OBException;
 import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBDal;
-import org.openbravo.model.pricing.pricelist.PriceList;
-import org.openbravo.retail.posterminal.OBPOSApplications;
 
-import com.doceleguas.pos.webservices.internal.terminal.OcrePosTerminalSupport;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContext;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
 
 /**
  * Backend model for ProductPrice masterdata.
@@ -34,12 +35,42 @@ public class OCProductPrice extends Model {
     String lastId = jsonParams.optString("lastId", null);
     String lastUpdated = jsonParams.optString("lastUpdated", null);
     String selectList = jsonParams.getString("selectList");
-    OBPOSApplications posterminal = OcrePosTerminalSupport.getTerminalById(jsonParams.getString("pos"));
-    String productListId = OcrePosTerminalSupport
-        .getProductListIdForPosterminalId(jsonParams.getString("pos"));
+    List<String> deltaIds = getDeltaIds(jsonParams);
+    OcreTerminalContext terminalContext = OcreTerminalContextCache.getInstance()
+        .get(jsonParams.getString("pos"));
+    if (terminalContext == null) {
+      throw new OBException("No terminal with id: " + jsonParams.getString("pos"));
+    }
+    String sql = getSqlTemplate(
+        shape(selectList, lastUpdated != null, lastId != null, deltaIds != null),
+        () -> buildSql(selectList, lastUpdated != null, lastId != null, deltaIds != null));
+
+    final Date terminalDate = new Date();
+
+    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql);
+    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+    query.setParameterList("clients", OBContext.getOBContext().getReadableClients())
+        .setParameterList("orgs",
+            OBContext.getOBContext()
+                .getOrganizationStructureProvider()
+                .getNaturalTree(jsonParams.getString("organization")))
+        .setParameter("productList", terminalContext.getProductListId())
+        .setParameter("priceList", terminalContext.getPriceListId())
+        .setParameter("terminalDate", terminalDate)
+        .setParameter("limit", limit);
+    if (lastId != null) {
+      query.setParameter("lastId", lastId);
+    }
+    if (deltaIds != null) {
+      query.setParameterList("deltaIds", deltaIds);
+    }
+    return query;
+  }
 
-    PriceList pricelist = OcrePosTerminalSupport.getPriceListByTerminal(posterminal.getSearchKey());
+  private static String buildSql(String selectList, boolean incremental, boolean hasLastId,
+      boolean delta) {
     String sql = "SELECT DISTINCT " + selectList //
+        + (delta ? ", ppp.m_productprice_id AS \"" + DELTA_ID_ALIAS + "\" " : "") //
         + "FROM OBRETCO_Prol_Product pli " //
         + "INNER JOIN M_ProductPrice ppp ON pli.M_Product_ID = ppp.M_Product_ID " //
         + "LEFT JOIN M_PriceList_Version plv ON ppp.M_PriceList_Version_ID = plv.M_PriceList_Version_ID " //
@@ -63,34 +94,19 @@ public class OCProductPrice extends Model {
         + " AND ( pli.ad_client_id IN :clients ) "//
         + " AND ( pli.ad_org_id IN :orgs ) ";//
 
-    if (lastUpdated != null) {
+    if (delta) {
+      sql += " AND ppp.m_productprice_id IN :deltaIds";
+    } else if (incremental) {
       sql += " AND ppp.updated > :lastUpdated";
     } else {
       sql += " AND ppp.isactive = 'Y'";
     }
-    if (lastId != null) {
+    if (hasLastId) {
       sql += " AND ppp.m_productprice_id > :lastId";
     }
     sql += " ORDER BY ppp.m_productprice_id" //
         + " LIMIT :limit";
-
-    final Date terminalDate = new Date();
-
-    NativeQuery<?> query = OBDal.getInstance().getSession().createNativeQuery(sql);
-    query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-    query.setParameterList("clients", OBContext.getOBContext().getReadableClients())
-        .setParameterList("orgs",
-            OBContext.getOBContext()
-                .getOrganizationStructureProvider()
-                .getNaturalTree(jsonParams.getString("organization")))
-        .setParameter("productList", productListId)
-        .setParameter("priceList", pricelist.getId())
-        .setParameter("terminalDate", terminalDate)
-        .setParameter("limit", limit);
-    if (lastId != null) {
-      query.setParameter("lastId", lastId);
-    }
-    return query;
+    return sql;
   }
 
   @Override
@@ -98,4 +114,9 @@ public class OCProductPrice extends Model {
     return "ProductPrice";
   }
 
+  @Override
+  public boolean hasChangeLog() {
+    return true;
+  }
+
 }
@@ -1,5 +1,8 @@
 package com.doceleguas.pos.webservices;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.hibernate.query.NativeQuery;
@@ -12,6 +15,8 @@ import org.openbravo.model.common.geography.Region;
 import org.openbravo.retail.posterminal.OBPOSApplications;
 
 import com.doceleguas.pos.webservices.internal.terminal.OcrePosTerminalSupport;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContext;
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
 
 public class OCTaxRate extends Model {
   @SuppressWarnings("deprecation")
@@ -109,4 +114,28 @@ public class OCTaxRate extends Model {
     return "TaxRate";
   }
 
+  @Override
+  public List<String> getSupportedParameters() {
+    return Arrays.asList("selectList", "limit", "offset", "lastUpdated");
+  }
+
+  @Override
+  public String getSnapshotScope(JSONObject jsonParams) throws JSONException {
+    // Taxes depend on the clients read by the query and on the store location of the terminal
+    // organization. Runs on every request, so the organization comes from the cached terminal
+    // context.
+    OcreTerminalContext terminalContext = OcreTerminalContextCache.getInstance()
+        .get(jsonParams.getString("pos"));
+    String orgId = terminalContext != null ? terminalContext.getOrganizationId()
+        : OcrePosTerminalSupport.getTerminalById(jsonParams.getString("pos"))
+            .getOrganization()
+            .getId();
+    return String.join(",", OBContext.getOBContext().getReadableClients()) + "|" + orgId;
+  }
+
+  @Override
+  public List<String> getSnapshotTables() {
+    return Arrays.asList("c_tax", "c_taxcategory", "c_tax_zone");
+  }
+
 }
@@ -0,0 +1,82 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.service.web.WebService;
+
+import com.doceleguas.pos.webservices.orderload.OrderImportMetrics;
+
+/**
+ * Publishes the OCWS_Order import metrics ({@link OrderImportMetrics}) in the Prometheus text
+ * format, together with the queue depth of every organization as sampled by
+ * {@link OCOrderAdmissionController}.
+ *
+ * <pre>
+ * GET /ws/com.doceleguas.pos.webservices.OrderImportMetrics
+ * </pre>
+ */
+public class OrderImportMetricsWebService implements WebService {
+
+  @Override
+  public void doGet(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    response.setContentType("text/plain; version=0.0.4");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+    Writer out = response.getWriter();
+    OrderImportMetrics.getInstance().writePrometheus(out);
+    out.write("# HELP ocws_order_queue_depth OCWS_Order entries waiting, by organization.\n");
+    out.write("# TYPE ocws_order_queue_depth gauge\n");
+    for (Map.Entry<String, Long> depth : OCOrderAdmissionController.getInstance()
+        .getQueueDepths()
+        .entrySet()) {
+      out.write("ocws_order_queue_depth{organization=\"" + depth.getKey() + "\"} "
+          + depth.getValue() + "\n");
+    }
+    out.flush();
+  }
+
+  @Override
+  public void doPost(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Use GET");
+  }
+
+  @Override
+  public void doDelete(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed");
+  }
+
+  @Override
+  public void doPut(String path, HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed");
+  }
+
+  private static void writeError(HttpServletResponse response, int status, String message)
+      throws Exception {
+    response.setStatus(status);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    JSONObject err = new JSONObject();
+    err.put("error", true);
+    err.put("message", message);
+    PrintWriter out = response.getWriter();
+    out.print(err.toString());
+    out.flush();
+  }
+}
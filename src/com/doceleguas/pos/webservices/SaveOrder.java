@@ -6,8 +6,8 @@
  */
 package com.doceleguas.pos.webservices;
 
-import java.io.BufferedReader;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
@@ -18,17 +18,24 @@ import org.apache.logging.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.service.importprocess.ImportEntry;
 import org.openbravo.service.importprocess.ImportEntryAlreadyExistsException;
 import org.openbravo.service.importprocess.ImportEntryBuilder;
 import org.openbravo.service.web.WebService;
 
+import com.doceleguas.pos.webservices.orderload.spi.ExternalEnvelopeTransform;
 import com.doceleguas.pos.webservices.orders.loader.OCOrderImportConstants;
+import com.doceleguas.pos.webservices.orders.loader.OCOrderImportLanes;
+import com.doceleguas.pos.webservices.orders.loader.OCOrderSyncImport;
 
 /**
  * Accepts SaveOrder native OrderLoader payload (v2) and enqueues it for asynchronous
  * processing via {@link com.doceleguas.pos.webservices.orders.loader.OCOrderImportEntryProcessor}.
+ *
+ * With {@code sync=true} (request parameter or body field) the entry is imported inline, see
+ * {@link OCOrderSyncImport}; if that does not finish in time the answer is the usual 202.
  */
 public class SaveOrder implements WebService {
 
@@ -54,11 +61,12 @@ public class SaveOrder implements WebService {
     response.setContentType("application/json");
     response.setCharacterEncoding("UTF-8");
 
-    StringBuilder sb = new StringBuilder();
-    String line;
-    try (BufferedReader reader = request.getReader()) {
-      while ((line = reader.readLine()) != null) {
-        sb.append(line);
+    StringBuilder sb = new StringBuilder(Math.max(request.getContentLength(), 1024));
+    char[] buffer = new char[8192];
+    try (Reader reader = request.getReader()) {
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        sb.append(buffer, 0, read);
       }
     }
 
@@ -69,20 +77,48 @@ public class SaveOrder implements WebService {
       JSONObject requestBody = new JSONObject(sb.toString());
       validateRequest(requestBody);
       String messageId = requestBody.getString("messageId");
+      String orgId = OBContext.getOBContext().getCurrentOrganization().getId();
+      OCOrderAdmissionController admission = OCOrderAdmissionController.getInstance();
+      long retryAfter = admission.getRetryAfter(orgId);
+      if (retryAfter > 0) {
+        // A resend of a queued ticket is a duplicate: rejecting it would make the POS retry
+        if (OBDal.getInstance().get(ImportEntry.class, messageId) != null) {
+          log.debug("Duplicate order import request for messageId {}", messageId);
+          writeAccepted(response, requestId, messageId, receivedAt, true);
+        } else {
+          admission.recordRejection(orgId, retryAfter);
+          writeOverloaded(response, requestId, retryAfter);
+        }
+        return;
+      }
+      boolean sync = "true".equals(request.getParameter("sync"))
+          || requestBody.optBoolean("sync", false);
       JSONObject queuePayload = normalizeForQueue(requestBody);
       String jsonString = queuePayload.toString();
 
       try {
         ImportEntryBuilder.newInstance(OCOrderImportConstants.TYPE_OF_DATA, jsonString)
             .setId(messageId)
-            .setNotifyManager(true)
+            .setNotifyManager(!sync)
             .create();
+        OBDal.getInstance().flush();
+        OCOrderImportLanes.setEntryTerminal(messageId, queuePayload);
       } catch (ImportEntryAlreadyExistsException dup) {
         log.debug("Duplicate order import request for messageId {}", messageId);
         writeAccepted(response, requestId, messageId, receivedAt, true);
         return;
       }
 
+      if (sync) {
+        // The import worker runs in its own transaction and must see the entry
+        OBDal.getInstance().commitAndClose();
+        OCOrderSyncImport.Result result = OCOrderSyncImport.importNow(messageId);
+        if (result.getOutcome() != OCOrderSyncImport.Outcome.QUEUED) {
+          writeImported(response, requestId, messageId, receivedAt, result);
+          return;
+        }
+      }
+
       writeAccepted(response, requestId, messageId, receivedAt, false);
 
     } catch (JSONException e) {
@@ -123,18 +159,24 @@ public class SaveOrder implements WebService {
   }
 
   /**
-   * Queue payload normalized to internal native shape expected by OCWS_Order pipeline.
+   * Queue payload normalized to internal native shape expected by OCWS_Order pipeline, and
+   * flagged as such so the import does not reshape or copy it again. The order of the request
+   * body is reused, not copied.
    */
   private JSONObject normalizeForQueue(JSONObject requestBody) throws JSONException {
     JSONObject normalized = new JSONObject();
     normalized.put("messageId", requestBody.getString("messageId"));
     String posTerminal = requestBody.optString("posTerminal", null);
     normalized.put("posTerminal", posTerminal);
+    if (posTerminal != null) {
+      normalized.put("pos", posTerminal);
+    }
     normalized.put("appName", "OCRE");
     normalized.put("channel", "Native");
+    normalized.put(ExternalEnvelopeTransform.NORMALIZED, true);
 
     JSONArray data = new JSONArray();
-    JSONObject order = new JSONObject(requestBody.getJSONObject("order").toString());
+    JSONObject order = requestBody.getJSONObject("order");
     if (!order.has("posTerminal") || order.isNull("posTerminal")
         || order.optString("posTerminal", "").trim().isEmpty()) {
       order.put("posTerminal", posTerminal);
@@ -167,6 +209,49 @@ public class SaveOrder implements WebService {
     out.flush();
   }
 
+  /**
+   * 503 with {@code Retry-After} when the import queue of the organization is above its
+   * high-water mark, see {@link OCOrderAdmissionController}. Nothing is queued.
+   */
+  private void writeOverloaded(HttpServletResponse response, String requestId, long retryAfter)
+      throws Exception {
+    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    response.setHeader("Retry-After", Long.toString(retryAfter));
+    JSONObject err = new JSONObject();
+    err.put("error", true);
+    err.put("message", "Order import queue is full, retry later");
+    err.put("requestId", requestId);
+    err.put("retryAfter", retryAfter);
+    PrintWriter out = response.getWriter();
+    out.print(err.toString());
+    out.flush();
+  }
+
+  /**
+   * Answer of a {@code sync=true} request imported before the deadline: 200 with
+   * {@code importStatus} Processed and the import result, or Error and its message.
+   */
+  private void writeImported(HttpServletResponse response, String requestId,
+      String importEntryId, long receivedAt, OCOrderSyncImport.Result result) throws Exception {
+    boolean processed = result.getOutcome() == OCOrderSyncImport.Outcome.PROCESSED;
+    response.setStatus(HttpServletResponse.SC_OK);
+    JSONObject ok = new JSONObject();
+    ok.put("status", processed ? "processed" : "error");
+    ok.put("requestId", requestId);
+    ok.put("importEntryId", importEntryId);
+    ok.put("receivedAt", receivedAt);
+    ok.put("duplicate", false);
+    ok.put("importStatus", processed ? "Processed" : "Error");
+    if (processed) {
+      ok.put("result", result.getResponse());
+    } else {
+      ok.put("message", result.getErrorMessage());
+    }
+    PrintWriter out = response.getWriter();
+    out.print(ok.toString());
+    out.flush();
+  }
+
   @Override
   public void doDelete(String path, HttpServletRequest request, HttpServletResponse response)
       throws Exception {
@@ -59,6 +59,16 @@ public class UpdateCashup {
    */
   public static OBPOSAppCashup getAndUpdateCashUp(String cashUpId, JSONObject jsonCashup,
       Date cashUpDate) throws JSONException, SQLException {
+    return getAndUpdateCashUp(cashUpId, jsonCashup, cashUpDate, true);
+  }
+
+  /**
+   * Same as {@link #getAndUpdateCashUp(String, JSONObject, Date)}, but with {@code commit} false
+   * the changes are only flushed and stay in the transaction of the caller. The order import uses
+   * it, since it holds locks and savepoints that a commit would release.
+   */
+  public static OBPOSAppCashup getAndUpdateCashUp(String cashUpId, JSONObject jsonCashup,
+      Date cashUpDate, boolean commit) throws JSONException, SQLException {
     // CashUp record will be read from the database with a "for update" clause to force the process
     // to get the lock on the record. The reason for this is to prevent the same cash up from being
     // processed twice in case of very quick duplicated requests.
@@ -160,7 +170,9 @@ public class UpdateCashup {
     }
 
     OBDal.getInstance().flush();
-    OBDal.getInstance().getConnection(false).commit();
+    if (commit) {
+      OBDal.getInstance().getConnection(false).commit();
+    }
     return cashUp;
   }
 
@@ -0,0 +1,47 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.event;
+
+import javax.transaction.Synchronization;
+
+import org.hibernate.Transaction;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Runs the eviction of a cache entry at flush time and again when the transaction that changed
+ * it completes. Another thread may read the old committed value between the flush and the
+ * commit; the eviction at flush time does not stop it from caching that value under the new
+ * generation, the second one drops it. It runs after a rollback too, which drops the values this
+ * transaction read after its own flush.
+ *
+ * Commits made directly on the JDBC connection do not complete the Hibernate transaction; entries
+ * changed in those transactions rely on the TTL of the cache.
+ */
+final class CacheEvictions {
+
+  private CacheEvictions() {
+  }
+
+  static void evictNowAndAfterCompletion(Runnable eviction) {
+    eviction.run();
+    Transaction transaction = OBDal.getInstance().getSession().getTransaction();
+    if (transaction == null || !transaction.isActive()) {
+      return;
+    }
+    transaction.registerSynchronization(new Synchronization() {
+      @Override
+      public void beforeCompletion() {
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        eviction.run();
+      }
+    });
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.event;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.enterprise.event.Observes;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
+import org.openbravo.base.structure.BaseOBObject;
+import org.openbravo.base.structure.ClientEnabled;
+import org.openbravo.base.structure.OrganizationEnabled;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Feeds OCWS_CHANGELOG with the master data records changed in each transaction, so incremental
+ * master data loads can be served from the log (see MasterDataChangeLog) instead of scanning by
+ * {@code updated}.
+ *
+ * Changes in child tables are logged against the master data record that includes them, e.g. a
+ * new M_Offer_Product row is logged as an update of its Discount. The log row is written through
+ * the DAL connection, so it is committed or rolled back together with the change. Old rows are
+ * deleted by the MasterDataChangeLogPurge background process.
+ */
+public class MasterDataChangeLogEventHandler extends EntityPersistenceEventObserver {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String INSERT_SQL = "INSERT INTO ocws_changelog"
+      + " (ocws_changelog_id, ad_client_id, ad_org_id, isactive, created, createdby, updated,"
+      + " updatedby, entity, record_id, operation, txid)"
+      + " VALUES (get_uuid(), ?, ?, 'Y', now(), ?, now(), ?, ?, ?, ?, txid_current())";
+
+  // table, master data model, parent table (null when the table is the model one)
+  private static final String[][] TRACKED_TABLES = { //
+      { "M_Product", "Product", null }, //
+      { "M_ProductPrice", "Product", "M_Product" }, //
+      { "M_ProductPrice", "ProductPrice", null }, //
+      { "OBRETCO_Prol_Product", "Product", "M_Product" }, //
+      { "C_BPartner", "BusinessPartner", null }, //
+      { "C_BPartner_Location", "BusinessPartner", "C_BPartner" }, //
+      { "AD_User", "BusinessPartner", "C_BPartner" }, //
+      { "M_Offer", "Discount", null }, //
+      { "M_Offer_BP_Group", "Discount", "M_Offer" }, //
+      { "M_Offer_BPartner", "Discount", "M_Offer" }, //
+      { "M_Offer_Prod_Cat", "Discount", "M_Offer" }, //
+      { "M_Offer_Product", "Discount", "M_Offer" }, //
+      { "M_Offer_PriceList", "Discount", "M_Offer" }, //
+      { "M_Offer_Organization", "Discount", "M_Offer" }, //
+      { "M_Offer_Incompatibility", "Discount", "M_Offer" } };
+
+  private static final Map<String, List<Tracking>> trackingsByEntity = new HashMap<>();
+  private static Entity[] entities;
+
+  static {
+    List<Entity> observed = new ArrayList<>();
+    for (String[] tracked : TRACKED_TABLES) {
+      Entity entity = ModelProvider.getInstance().getEntityByTableName(tracked[0]);
+      if (entity == null) {
+        log.warn("Table {} not found, its changes will not be logged", tracked[0]);
+        continue;
+      }
+      Property parentProperty = null;
+      if (tracked[2] != null) {
+        parentProperty = getParentProperty(entity, tracked[2]);
+        if (parentProperty == null) {
+          log.warn("No {} reference found in {}, its changes will not be logged", tracked[2],
+              tracked[0]);
+          continue;
+        }
+      }
+      if (!observed.contains(entity)) {
+        observed.add(entity);
+      }
+      trackingsByEntity.computeIfAbsent(entity.getName(), k -> new ArrayList<>())
+          .add(new Tracking(tracked[1], parentProperty));
+    }
+    entities = observed.toArray(new Entity[0]);
+  }
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onSave(@Observes EntityNewEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    logChange(event, "I");
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    logChange(event, "U");
+    // A child moved to another parent also changes the previous one
+    for (Tracking tracking : getTrackings(event)) {
+      if (tracking.parentProperty == null) {
+        continue;
+      }
+      Object previous = event.getPreviousState(tracking.parentProperty);
+      Object current = event.getCurrentState(tracking.parentProperty);
+      if (previous instanceof BaseOBObject && previous != current) {
+        insert(event.getTargetInstance(), tracking.modelName,
+            (String) ((BaseOBObject) previous).getId(), "U");
+      }
+    }
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    logChange(event, "D");
+  }
+
+  private void logChange(EntityPersistenceEvent event, String operation) {
+    BaseOBObject target = event.getTargetInstance();
+    for (Tracking tracking : getTrackings(event)) {
+      if (tracking.parentProperty == null) {
+        insert(target, tracking.modelName, (String) target.getId(), operation);
+      } else {
+        BaseOBObject parent = (BaseOBObject) target.get(tracking.parentProperty.getName());
+        if (parent != null) {
+          insert(target, tracking.modelName, (String) parent.getId(), "U");
+        }
+      }
+    }
+  }
+
+  private List<Tracking> getTrackings(EntityPersistenceEvent event) {
+    List<Tracking> trackings = trackingsByEntity
+        .get(event.getTargetInstance().getEntity().getName());
+    return trackings == null ? new ArrayList<>() : trackings;
+  }
+
+  private void insert(BaseOBObject target, String modelName, String recordId, String operation) {
+    String userId = OBContext.getOBContext().getUser().getId();
+    try (PreparedStatement ps = OBDal.getInstance()
+        .getConnection(false)
+        .prepareStatement(INSERT_SQL)) {
+      ps.setString(1, getClientId(target));
+      ps.setString(2, getOrgId(target));
+      ps.setString(3, userId);
+      ps.setString(4, userId);
+      ps.setString(5, modelName);
+      ps.setString(6, recordId);
+      ps.setString(7, operation);
+      ps.executeUpdate();
+    } catch (SQLException e) {
+      throw new OBException("Error logging change of " + modelName + " " + recordId, e);
+    }
+  }
+
+  private static String getClientId(BaseOBObject target) {
+    if (target instanceof ClientEnabled && ((ClientEnabled) target).getClient() != null) {
+      return ((ClientEnabled) target).getClient().getId();
+    }
+    return OBContext.getOBContext().getCurrentClient().getId();
+  }
+
+  private static String getOrgId(BaseOBObject target) {
+    if (target instanceof OrganizationEnabled
+        && ((OrganizationEnabled) target).getOrganization() != null) {
+      return ((OrganizationEnabled) target).getOrganization().getId();
+    }
+    return "0";
+  }
+
+  private static Property getParentProperty(Entity entity, String parentTable) {
+    String parentColumn = parentTable + "_ID";
+    for (Property property : entity.getProperties()) {
+      if (!property.isPrimitive() && property.getTargetEntity() != null
+          && parentColumn.equalsIgnoreCase(property.getColumnName())) {
+        return property;
+      }
+    }
+    return null;
+  }
+
+  private static class Tracking {
+    private final String modelName;
+    private final Property parentProperty;
+
+    private Tracking(String modelName, Property parentProperty) {
+      this.modelName = modelName;
+      this.parentProperty = parentProperty;
+    }
+  }
+}
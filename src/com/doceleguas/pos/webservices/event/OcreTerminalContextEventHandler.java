@@ -0,0 +1,94 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.event;
+
+import javax.enterprise.event.Observes;
+
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.structure.BaseOBObject;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.common.enterprise.Organization;
+import org.openbravo.model.pricing.pricelist.PriceListVersion;
+import org.openbravo.retail.posterminal.OBPOSAppPayment;
+import org.openbravo.retail.posterminal.OBPOSApplications;
+import org.openbravo.retail.posterminal.TerminalType;
+
+import com.doceleguas.pos.webservices.internal.terminal.OcreTerminalContextCache;
+
+/**
+ * Evicts the cached terminal contexts affected by a change in a terminal, terminal type,
+ * organization, price list version or terminal payment method. The eviction runs again when the
+ * transaction completes.
+ */
+public class OcreTerminalContextEventHandler extends EntityPersistenceEventObserver {
+  private static Entity[] entities = {
+      ModelProvider.getInstance().getEntity(OBPOSApplications.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(TerminalType.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(Organization.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(PriceListVersion.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(OBPOSAppPayment.ENTITY_NAME) };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onSave(@Observes EntityNewEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  private void evict(EntityPersistenceEvent event) {
+    OcreTerminalContextCache cache = OcreTerminalContextCache.getInstance();
+    BaseOBObject target = event.getTargetInstance();
+    String id = (String) target.getId();
+    if (target instanceof OBPOSApplications) {
+      CacheEvictions.evictNowAndAfterCompletion(() -> cache.evictTerminal(id));
+    } else if (target instanceof TerminalType) {
+      CacheEvictions.evictNowAndAfterCompletion(() -> cache.evictTerminalType(id));
+    } else if (target instanceof Organization) {
+      CacheEvictions.evictNowAndAfterCompletion(() -> cache.evictOrganization(id));
+    } else if (target instanceof PriceListVersion) {
+      PriceListVersion version = (PriceListVersion) target;
+      if (version.getPriceList() != null) {
+        String priceListId = version.getPriceList().getId();
+        CacheEvictions.evictNowAndAfterCompletion(() -> cache.evictPriceList(priceListId));
+      } else {
+        CacheEvictions.evictNowAndAfterCompletion(cache::evictAll);
+      }
+    } else if (target instanceof OBPOSAppPayment) {
+      BaseOBObject terminal = (BaseOBObject) target
+          .get(OBPOSAppPayment.PROPERTY_OBPOSAPPLICATIONS);
+      if (terminal != null) {
+        String terminalId = (String) terminal.getId();
+        CacheEvictions.evictNowAndAfterCompletion(() -> cache.evictTerminal(terminalId));
+      }
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.event;
+
+import javax.enterprise.event.Observes;
+
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.common.plm.Product;
+
+import com.doceleguas.pos.webservices.orderload.impl.ProductMetadataCache;
+
+/**
+ * Drops a product from the order import product cache when it is created, changed or deleted. A
+ * new product may have been cached as missing. The eviction runs again when the transaction
+ * completes.
+ */
+public class ProductMetadataCacheEventHandler extends EntityPersistenceEventObserver {
+  private static Entity[] entities = {
+      ModelProvider.getInstance().getEntity(Product.ENTITY_NAME) };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onSave(@Observes EntityNewEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  private void evict(EntityPersistenceEvent event) {
+    ProductMetadataCache cache = ProductMetadataCache.getInstance();
+    String productId = (String) event.getTargetInstance().getId();
+    CacheEvictions.evictNowAndAfterCompletion(() -> cache.evict(productId));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.event;
+
+import javax.enterprise.event.Observes;
+
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.structure.BaseOBObject;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.common.plm.Product;
+import org.openbravo.model.financialmgmt.tax.TaxCategory;
+import org.openbravo.model.financialmgmt.tax.TaxRate;
+import org.openbravo.model.financialmgmt.tax.TaxZone;
+
+import com.doceleguas.pos.webservices.orderload.impl.TaxResolutionCache;
+
+/**
+ * Invalidates the order import tax cache: all of it when a tax, tax category or tax zone changes,
+ * and the tax engine results of a product when the product changes. The eviction runs again when
+ * the transaction completes.
+ */
+public class TaxResolutionCacheEventHandler extends EntityPersistenceEventObserver {
+  private static Entity[] entities = {
+      ModelProvider.getInstance().getEntity(TaxRate.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(TaxCategory.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(TaxZone.ENTITY_NAME),
+      ModelProvider.getInstance().getEntity(Product.ENTITY_NAME) };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onSave(@Observes EntityNewEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    evict(event);
+  }
+
+  private void evict(EntityPersistenceEvent event) {
+    TaxResolutionCache cache = TaxResolutionCache.getInstance();
+    BaseOBObject target = event.getTargetInstance();
+    if (target instanceof Product) {
+      String productId = (String) target.getId();
+      CacheEvictions.evictNowAndAfterCompletion(() -> cache.evictProduct(productId));
+    } else {
+      CacheEvictions.evictNowAndAfterCompletion(cache::clear);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.internal.terminal;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the configuration of a POS terminal that requests look up over and over:
+ * organization tree, product list, price list and its current version, warehouse, currency and
+ * payment methods. Only ids are kept so the snapshot can be shared between sessions and threads.
+ *
+ * Instances are built and cached by {@link OcreTerminalContextCache}.
+ */
+public final class OcreTerminalContext {
+
+  private final String terminalId;
+  private final String searchKey;
+  private final String clientId;
+  private final String organizationId;
+  private final String terminalTypeId;
+  private final List<String> organizationTree;
+  private final String productListId;
+  private final String priceListId;
+  private final String currencyId;
+  private final String priceListVersionId;
+  private final String warehouseId;
+  private final Map<String, String> paymentMethodIds;
+  private final Date day;
+
+  OcreTerminalContext(Builder builder) {
+    this.terminalId = builder.terminalId;
+    this.searchKey = builder.searchKey;
+    this.clientId = builder.clientId;
+    this.organizationId = builder.organizationId;
+    this.terminalTypeId = builder.terminalTypeId;
+    this.organizationTree = Collections.unmodifiableList(builder.organizationTree);
+    this.productListId = builder.productListId;
+    this.priceListId = builder.priceListId;
+    this.currencyId = builder.currencyId;
+    this.priceListVersionId = builder.priceListVersionId;
+    this.warehouseId = builder.warehouseId;
+    this.paymentMethodIds = Collections.unmodifiableMap(builder.paymentMethodIds);
+    this.day = builder.day;
+  }
+
+  public String getTerminalId() {
+    return terminalId;
+  }
+
+  public String getSearchKey() {
+    return searchKey;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public String getOrganizationId() {
+    return organizationId;
+  }
+
+  public String getTerminalTypeId() {
+    return terminalTypeId;
+  }
+
+  /** The terminal organization followed by its parents, as in {@code getParentList(org, true)}. */
+  public List<String> getOrganizationTree() {
+    return organizationTree;
+  }
+
+  /** Assortment of the terminal type or, if it has none, of the closest organization. */
+  public String getProductListId() {
+    return productListId;
+  }
+
+  public String getPriceListId() {
+    return priceListId;
+  }
+
+  public String getCurrencyId() {
+    return currencyId;
+  }
+
+  /** Price list version valid on the day the snapshot was built. */
+  public String getPriceListVersionId() {
+    return priceListVersionId;
+  }
+
+  public String getWarehouseId() {
+    return warehouseId;
+  }
+
+  /** Active payment methods of the terminal, search key to OBPOS_App_Payment id. */
+  public Map<String, String> getPaymentMethodIds() {
+    return paymentMethodIds;
+  }
+
+  /** Whether the snapshot was built today, the price list version may change with the day. */
+  boolean isFromToday() {
+    return day.equals(OcrePosTerminalSupport.getCurrentDate());
+  }
+
+  boolean dependsOnOrganization(String orgId) {
+    return organizationTree.contains(orgId);
+  }
+
+  static class Builder {
+    private String terminalId;
+    private String searchKey;
+    private String clientId;
+    private String organizationId;
+    private String terminalTypeId;
+    private List<String> organizationTree = Collections.emptyList();
+    private String productListId;
+    private String priceListId;
+    private String currencyId;
+    private String priceListVersionId;
+    private String warehouseId;
+    private Map<String, String> paymentMethodIds = Collections.emptyMap();
+    private Date day;
+
+    Builder terminal(String id, String terminalSearchKey, String client, String organization,
+        String terminalType) {
+      this.terminalId = id;
+      this.searchKey = terminalSearchKey;
+      this.clientId = client;
+      this.organizationId = organization;
+      this.terminalTypeId = terminalType;
+      return this;
+    }
+
+    Builder organizationTree(List<String> tree) {
+      this.organizationTree = tree;
+      return this;
+    }
+
+    Builder productList(String id) {
+      this.productListId = id;
+      return this;
+    }
+
+    Builder priceList(String id, String currency, String versionId) {
+      this.priceListId = id;
+      this.currencyId = currency;
+      this.priceListVersionId = versionId;
+      return this;
+    }
+
+    Builder warehouse(String id) {
+      this.warehouseId = id;
+      return this;
+    }
+
+    Builder paymentMethods(Map<String, String> ids) {
+      this.paymentMethodIds = ids;
+      return this;
+    }
+
+    Builder day(Date builtOn) {
+      this.day = builtOn;
+      return this;
+    }
+
+    OcreTerminalContext build() {
+      return new OcreTerminalContext(this);
+    }
+  }
+}
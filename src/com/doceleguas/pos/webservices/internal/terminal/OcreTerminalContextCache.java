@@ -0,0 +1,189 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.internal.terminal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.criterion.Restrictions;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBCriteria;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.common.enterprise.Organization;
+import org.openbravo.model.common.enterprise.Warehouse;
+import org.openbravo.model.pricing.pricelist.PriceList;
+import org.openbravo.model.pricing.pricelist.PriceListVersion;
+import org.openbravo.retail.posterminal.OBPOSAppPayment;
+import org.openbravo.retail.posterminal.OBPOSApplications;
+import org.openbravo.retail.posterminal.TerminalType;
+
+import com.doceleguas.pos.webservices.utils.ExpiringCache;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Cache of {@link OcreTerminalContext} snapshots by terminal id, so the terminal, organization
+ * tree, assortment and price list lookups of {@link OcrePosTerminalSupport} run once per terminal
+ * instead of on every request.
+ *
+ * Snapshots expire after a TTL and when the day changes, and are evicted when a terminal,
+ * terminal type, organization, price list version or terminal payment method changes (see
+ * {@code OcreTerminalContextEventHandler}), at flush time and again once the transaction
+ * completes: a snapshot built before the change is committed is dropped by the second eviction,
+ * or not stored if it was still being built. Evictions only reach the node where the change is made; in a cluster the other
+ * nodes rely on the TTL.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.terminalContext.enabled (default true)</li>
+ * <li>ocws.terminalContext.ttl seconds a snapshot is kept (default 300)</li>
+ * <li>ocws.terminalContext.maxEntries (default 2000)</li>
+ * </ul>
+ */
+public class OcreTerminalContextCache {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final OcreTerminalContextCache INSTANCE = new OcreTerminalContextCache();
+
+  private final boolean enabled;
+  private final ExpiringCache<String, OcreTerminalContext> contexts;
+  private final AtomicLong evictions = new AtomicLong();
+
+  public static OcreTerminalContextCache getInstance() {
+    return INSTANCE;
+  }
+
+  private OcreTerminalContextCache() {
+    enabled = OcwsProperties.getBoolean("ocws.terminalContext.enabled", true);
+    contexts = new ExpiringCache<>(OcwsProperties.getLong("ocws.terminalContext.ttl", 300) * 1000,
+        OcwsProperties.getInt("ocws.terminalContext.maxEntries", 2000));
+  }
+
+  /** Returns the snapshot of the terminal or null if there is no terminal with that id. */
+  public OcreTerminalContext get(String terminalId) {
+    if (terminalId == null) {
+      return null;
+    }
+    OcreTerminalContext context = enabled ? contexts.get(terminalId) : null;
+    if (context != null && context.isFromToday()) {
+      return context;
+    }
+    long evictionsBefore = evictions.get();
+    context = build(terminalId);
+    if (enabled && context != null && evictionsBefore == evictions.get()) {
+      contexts.put(terminalId, context);
+    }
+    return context;
+  }
+
+  /**
+   * Returns the snapshot of the terminal when it belongs to the given organization, null
+   * otherwise. Used by callers that receive the organization separately from the terminal and
+   * must keep resolving by organization when both do not match.
+   */
+  public OcreTerminalContext getForOrganization(String terminalId, String orgId) {
+    OcreTerminalContext context = get(terminalId);
+    if (context == null || !context.getOrganizationId().equals(orgId)) {
+      return null;
+    }
+    return context;
+  }
+
+  public void evictTerminal(String terminalId) {
+    evictions.incrementAndGet();
+    contexts.remove(terminalId);
+  }
+
+  public void evictTerminalType(String terminalTypeId) {
+    evictions.incrementAndGet();
+    contexts.removeValuesIf(c -> terminalTypeId.equals(c.getTerminalTypeId()));
+  }
+
+  public void evictOrganization(String orgId) {
+    evictions.incrementAndGet();
+    contexts.removeValuesIf(c -> c.dependsOnOrganization(orgId));
+  }
+
+  public void evictPriceList(String priceListId) {
+    evictions.incrementAndGet();
+    contexts.removeValuesIf(c -> priceListId.equals(c.getPriceListId()));
+  }
+
+  public void evictAll() {
+    evictions.incrementAndGet();
+    contexts.clear();
+  }
+
+  private OcreTerminalContext build(String terminalId) {
+    OBContext.setAdminMode(false);
+    try {
+      OBPOSApplications terminal = OBDal.getInstance().get(OBPOSApplications.class, terminalId);
+      if (terminal == null) {
+        return null;
+      }
+      Date today = OcrePosTerminalSupport.getCurrentDate();
+      String orgId = terminal.getOrganization().getId();
+      List<String> organizationTree = new ArrayList<>(
+          OcrePosTerminalSupport.getStoreList(orgId));
+      TerminalType terminalType = terminal.getObposTerminaltype();
+
+      String productListId = terminalType.getObretcoProductlist() != null
+          ? terminalType.getObretcoProductlist().getId()
+          : null;
+      PriceList priceList = null;
+      for (String currentOrgId : organizationTree) {
+        if (productListId != null && priceList != null) {
+          break;
+        }
+        Organization org = OBDal.getInstance().get(Organization.class, currentOrgId);
+        if (productListId == null && org.getObretcoProductlist() != null) {
+          productListId = org.getObretcoProductlist().getId();
+        }
+        if (priceList == null && org.getObretcoPricelist() != null) {
+          priceList = org.getObretcoPricelist();
+        }
+      }
+
+      OcreTerminalContext.Builder builder = new OcreTerminalContext.Builder()
+          .terminal(terminal.getId(), terminal.getSearchKey(), terminal.getClient().getId(), orgId,
+              terminalType.getId())
+          .organizationTree(organizationTree)
+          .productList(productListId)
+          .day(today);
+      if (priceList != null) {
+        PriceListVersion version = OcrePosTerminalSupport
+            .getPriceListVersionForPriceList(priceList.getId(), new Date());
+        builder.priceList(priceList.getId(), priceList.getCurrency().getId(),
+            version != null ? version.getId() : null);
+      }
+      Warehouse warehouse = OcrePosTerminalSupport.getWarehouseForTerminal(terminal);
+      builder.warehouse(warehouse != null ? warehouse.getId() : null);
+      builder.paymentMethods(getPaymentMethodIds(terminal));
+      log.debug("Built context of terminal {}", terminal.getSearchKey());
+      return builder.build();
+    } finally {
+      OBContext.restorePreviousMode();
+    }
+  }
+
+  private Map<String, String> getPaymentMethodIds(OBPOSApplications terminal) {
+    OBCriteria<OBPOSAppPayment> criteria = OBDal.getInstance()
+        .createCriteria(OBPOSAppPayment.class);
+    criteria.add(Restrictions.eq(OBPOSAppPayment.PROPERTY_OBPOSAPPLICATIONS, terminal));
+    criteria.addOrderBy(OBPOSAppPayment.PROPERTY_SEARCHKEY, true);
+    Map<String, String> ids = new LinkedHashMap<>();
+    for (OBPOSAppPayment payment : criteria.list()) {
+      ids.put(payment.getSearchKey(), payment.getId());
+    }
+    return ids;
+  }
+}
@@ -50,9 +50,15 @@ public class OcreOrderLoadOrchestrator {
 
   public JSONObject importEnvelope(JSONObject messageIn) {
     JSONObject ret = new JSONObject();
+    OrderImportMetrics metrics = OrderImportMetrics.getInstance();
+    boolean routed = false;
     try {
+      long start = System.nanoTime();
       JSONObject prepared = envelopeTransform.onInboundEnvelope(messageIn);
+      metrics.recordStage(OrderImportMetrics.Stage.TRANSFORM, start);
+      start = System.nanoTime();
       applyOcrePreHooks(prepared);
+      metrics.recordStage(OrderImportMetrics.Stage.PRE_HOOKS, start);
 
       OrderLoadExecutionMode mode = modeResolver.resolve();
       if (mode == OrderLoadExecutionMode.SHADOW_NATIVE) {
@@ -61,8 +67,13 @@ public class OcreOrderLoadOrchestrator {
             prepared.optString("messageId", "<missing>"));
       }
 
+      routed = true;
       ret = routeAndPersist(prepared);
     } catch (Exception e) {
+      if (!routed) {
+        // Orders are counted by flow once routed; earlier failures cannot be classified
+        metrics.recordOrder(OrderFlowType.OTHER, false);
+      }
       // Preserve the original cause + full stack: the envelope status below only carries
       // e.getMessage(), which hides where the failure really originated (e.g. mandatory-field
       // validations raised deeper in persistence/invoice/posting).
@@ -99,8 +110,16 @@ public class OcreOrderLoadOrchestrator {
           prepared.optString("messageId", "<missing>"), flow, OrderFlowUtils.resolveStep(order),
           order.optString("documentNo", "<missing>"));
       JSONObject singleEnvelope = OrderFlowUtils.wrapSingleEnvelope(prepared, order);
-      JSONObject result = coreOrderPersistence.persistTransformedEnvelope(singleEnvelope);
+      JSONObject result;
+      try {
+        result = coreOrderPersistence.persistTransformedEnvelope(singleEnvelope);
+      } catch (Exception e) {
+        OrderImportMetrics.getInstance().recordOrder(flow, false);
+        throw e;
+      }
       int status = result.optInt(JsonConstants.RESPONSE_STATUS, JsonConstants.RPCREQUEST_STATUS_SUCCESS);
+      OrderImportMetrics.getInstance()
+          .recordOrder(flow, status == JsonConstants.RPCREQUEST_STATUS_SUCCESS);
       if (status != JsonConstants.RPCREQUEST_STATUS_SUCCESS) {
         return result;
       }
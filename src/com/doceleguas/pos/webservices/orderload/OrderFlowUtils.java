@@ -55,6 +55,20 @@ public final class OrderFlowUtils {
     return classify(orderJson) == OrderFlowType.RETURN;
   }
 
+  /**
+   * Terminal search key of an envelope: its {@code posTerminal}, or the one of its first order.
+   * Null if neither has one.
+   */
+  public static String getTerminal(JSONObject envelope) {
+    String terminal = envelope != null ? envelope.optString("posTerminal", "") : "";
+    JSONArray data = envelope != null ? envelope.optJSONArray("data") : null;
+    JSONObject order = data != null ? data.optJSONObject(0) : null;
+    if (StringUtils.isBlank(terminal) && order != null) {
+      terminal = order.optString("posTerminal", "");
+    }
+    return StringUtils.isBlank(terminal) ? null : terminal;
+  }
+
   public static JSONObject wrapSingleEnvelope(JSONObject preparedEnvelope, JSONObject orderJson)
       throws JSONException {
     JSONObject single = new JSONObject();
@@ -63,7 +77,8 @@ public final class OrderFlowUtils {
     single.put("appName", preparedEnvelope.optString("appName", "OCRE"));
     single.put("channel", preparedEnvelope.optString("channel", "Native"));
     JSONArray data = new JSONArray();
-    data.put(new JSONObject(orderJson.toString()));
+    // The order is not copied: it belongs to the envelope being imported
+    data.put(orderJson);
     single.put("data", data);
     if (preparedEnvelope.has("metadata")) {
       single.put("metadata", preparedEnvelope.get("metadata"));
@@ -0,0 +1,218 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.orderload;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openbravo.jmx.MBeanRegistry;
+
+/**
+ * Metrics of the OCWS_Order import pipeline: latency histograms per stage, imported and failed
+ * orders by {@link OrderFlowType}, and the time entries wait in the queue. Published as the
+ * {@code OCWSOrderImportMetrics} MBean and, in Prometheus text format, by the
+ * {@code OrderImportMetrics} web service.
+ */
+public class OrderImportMetrics implements OrderImportMetricsMBean {
+
+  /** Parts of the import whose latency is measured. */
+  public enum Stage {
+    TRANSFORM("transform"),
+    PRE_HOOKS("pre_hooks"),
+    /** Line creation, including {@link #TAX_RESOLUTION}. */
+    LINES("lines"),
+    TAX_RESOLUTION("tax_resolution"),
+    COMPLETE("complete"),
+    /** Shipment and invoice, including {@link #SHIPMENT} and {@link #INVOICE}. */
+    DOCUMENTS("documents"),
+    SHIPMENT("shipment"),
+    INVOICE("invoice"),
+    PAYMENTS("payments"),
+    SEQUENCES("sequences");
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+  }
+
+  /** Upper bounds of the histogram buckets, in seconds. */
+  private static final double[] BUCKETS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1,
+      2.5, 5, 10, 30, 60, 300 };
+
+  private static final OrderImportMetrics INSTANCE = new OrderImportMetrics();
+
+  private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+  private final Histogram queueWait = new Histogram();
+  private final Map<OrderFlowType, LongAdder> imported = new EnumMap<>(OrderFlowType.class);
+  private final Map<OrderFlowType, LongAdder> failed = new EnumMap<>(OrderFlowType.class);
+
+  public static OrderImportMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  private OrderImportMetrics() {
+    for (Stage stage : Stage.values()) {
+      stages.put(stage, new Histogram());
+    }
+    for (OrderFlowType flow : OrderFlowType.values()) {
+      imported.put(flow, new LongAdder());
+      failed.put(flow, new LongAdder());
+    }
+    MBeanRegistry.registerMBean("OCWSOrderImportMetrics", this);
+  }
+
+  /** Records a stage that started at {@code startNanos}, a {@link System#nanoTime()} value. */
+  public void recordStage(Stage stage, long startNanos) {
+    stages.get(stage).observe((System.nanoTime() - startNanos) / 1e9);
+  }
+
+  public void recordOrder(OrderFlowType flow, boolean success) {
+    (success ? imported : failed).get(flow).increment();
+  }
+
+  /** Records the time an entry waited in the queue, from its creation until it was imported. */
+  public void recordQueueWait(long millis) {
+    queueWait.observe(Math.max(0, millis) / 1000d);
+  }
+
+  /** Writes the metrics in the Prometheus text exposition format. */
+  public void writePrometheus(Writer out) throws IOException {
+    out.write("# HELP ocws_order_stage_seconds Latency of the OCWS_Order import stages.\n");
+    out.write("# TYPE ocws_order_stage_seconds histogram\n");
+    for (Map.Entry<Stage, Histogram> entry : stages.entrySet()) {
+      entry.getValue()
+          .write(out, "ocws_order_stage_seconds", "stage=\"" + entry.getKey().label + "\"");
+    }
+    out.write("# HELP ocws_order_queue_wait_seconds Time from import entry creation to import.\n");
+    out.write("# TYPE ocws_order_queue_wait_seconds histogram\n");
+    queueWait.write(out, "ocws_order_queue_wait_seconds", null);
+    out.write("# HELP ocws_order_imports_total Orders imported, by flow type and result.\n");
+    out.write("# TYPE ocws_order_imports_total counter\n");
+    for (OrderFlowType flow : OrderFlowType.values()) {
+      writeSample(out, "ocws_order_imports_total",
+          "flow=\"" + flow + "\",result=\"success\"", imported.get(flow).sum());
+      writeSample(out, "ocws_order_imports_total",
+          "flow=\"" + flow + "\",result=\"failure\"", failed.get(flow).sum());
+    }
+  }
+
+  @Override
+  public long getImportedOrders() {
+    return imported.values().stream().mapToLong(LongAdder::sum).sum();
+  }
+
+  @Override
+  public long getFailedOrders() {
+    return failed.values().stream().mapToLong(LongAdder::sum).sum();
+  }
+
+  @Override
+  public String getFailuresByFlowType() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<OrderFlowType, LongAdder> entry : failed.entrySet()) {
+      sb.append(sb.length() > 0 ? ", " : "").append(entry.getKey()).append('=')
+          .append(entry.getValue().sum());
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String getStageLatencies() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<Stage, Histogram> entry : stages.entrySet()) {
+      Histogram histogram = entry.getValue();
+      sb.append(sb.length() > 0 ? ", " : "").append(entry.getKey().label).append('=')
+          .append(histogram.count.sum()).append(" x ")
+          .append(String.format(Locale.ROOT, "%.1f", histogram.getAverage() * 1000))
+          .append(" ms");
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public double getAverageQueueWaitMillis() {
+    return queueWait.getAverage() * 1000;
+  }
+
+  @Override
+  public void reset() {
+    stages.values().forEach(Histogram::reset);
+    queueWait.reset();
+    imported.values().forEach(LongAdder::reset);
+    failed.values().forEach(LongAdder::reset);
+  }
+
+  private static void writeSample(Writer out, String name, String labels, Object value)
+      throws IOException {
+    out.write(name);
+    if (labels != null) {
+      out.write('{');
+      out.write(labels);
+      out.write('}');
+    }
+    out.write(' ');
+    out.write(value.toString());
+    out.write('\n');
+  }
+
+  private static class Histogram {
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void observe(double seconds) {
+      for (int i = 0; i < BUCKETS.length; i++) {
+        if (seconds <= BUCKETS[i]) {
+          buckets[i].increment();
+          break;
+        }
+      }
+      count.increment();
+      sum.add(seconds);
+    }
+
+    double getAverage() {
+      long n = count.sum();
+      return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    void reset() {
+      for (LongAdder bucket : buckets) {
+        bucket.reset();
+      }
+      count.reset();
+      sum.reset();
+    }
+
+    /** Writes the cumulative buckets, sum and count. */
+    void write(Writer out, String name, String labels) throws IOException {
+      String prefix = labels != null ? labels + "," : "";
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        cumulative += buckets[i].sum();
+        writeSample(out, name + "_bucket", prefix + "le=\"" + BUCKETS[i] + "\"", cumulative);
+      }
+      writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"", count.sum());
+      writeSample(out, name + "_sum", labels, sum.sum());
+      writeSample(out, name + "_count", labels, count.sum());
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.orderload;
+
+public interface OrderImportMetricsMBean {
+
+  long getImportedOrders();
+
+  long getFailedOrders();
+
+  String getFailuresByFlowType();
+
+  String getStageLatencies();
+
+  double getAverageQueueWaitMillis();
+
+  void reset();
+
+}
@@ -6,8 +6,8 @@
  */
 package com.doceleguas.pos.webservices.orderload.impl;
 
-import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -25,15 +25,14 @@ import java.util.UUID;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.servlet.ServletException;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.time.DateFormatUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 import org.openbravo.advpaymentmngt.process.FIN_AddPayment;
 import org.openbravo.advpaymentmngt.process.FIN_PaymentProcess;
@@ -41,13 +40,11 @@ import org.openbravo.advpaymentmngt.utility.FIN_Utility;
 import org.openbravo.base.exception.OBException;
 import org.openbravo.base.model.ModelProvider;
 import org.openbravo.base.provider.OBProvider;
-import org.openbravo.base.session.OBPropertiesProvider;
 import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.core.TriggerHandler;
 import org.openbravo.dal.service.OBCriteria;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.erpCommon.businessUtility.CancelAndReplaceUtils;
-import org.openbravo.erpCommon.businessUtility.Tax;
 import org.openbravo.model.ad.system.Client;
 import org.openbravo.model.common.businesspartner.BusinessPartner;
 import org.openbravo.model.common.businesspartner.Location;
@@ -78,14 +75,18 @@ import org.openbravo.retail.posterminal.OBPOSAppPayment;
 import org.openbravo.retail.posterminal.OBPOSApplications;
 import org.openbravo.retail.posterminal.POSUtils;
 import org.openbravo.retail.posterminal.TerminalTypePaymentMethod;
-import org.openbravo.service.db.DalConnectionProvider;
+import org.openbravo.service.importprocess.ImportEntryAlreadyExistsException;
+import org.openbravo.service.importprocess.ImportEntryBuilder;
 import org.openbravo.service.json.JsonConstants;
 
 import com.doceleguas.pos.webservices.cashup.engine.UpdateCashup;
 import com.doceleguas.pos.webservices.internal.terminal.OcrePosTerminalSupport;
 import com.doceleguas.pos.webservices.orderload.OrderFlowType;
 import com.doceleguas.pos.webservices.orderload.OrderFlowUtils;
+import com.doceleguas.pos.webservices.orderload.OrderImportMetrics;
 import com.doceleguas.pos.webservices.orderload.spi.OrderPersistencePort;
+import com.doceleguas.pos.webservices.orders.loader.OCOrderImportConstants;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
 
 /**
  * First functional Core/DAL persistence adapter for OCOrder.
@@ -96,7 +97,10 @@ import com.doceleguas.pos.webservices.orderload.spi.OrderPersistencePort;
 public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
 
   private static final Logger log = LogManager.getLogger();
-  private final Map<String, ProductServiceConfig> serviceConfigCache = new HashMap<>();
+  static final int JDBC_BATCH_SIZE = OcwsProperties
+      .getInt("ocws.orderImport.jdbcBatchSize", 50);
+  private static final boolean DEFER_DOCUMENTS = OcwsProperties
+      .getBoolean("ocws.orderImport.deferDocuments", false);
 
   @Inject
   private OcreNativeStandardDocumentsService nativeStandardDocumentsService;
@@ -126,14 +130,13 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
 
       OrderCreationResult orderResult = createOrReuseOrder(orderJson, terminalContext);
       Order order = orderResult.order;
+      OrderPersistenceStages stages = new OrderPersistenceStages(order);
       if (orderResult.duplicate) {
         // Idempotent re-import: order already in DB, but the terminal may still be behind
         // (e.g. first import never updated sequences, or only duplicate paths ran). Bumping
         // last* sequence with max(terminal, payload) is safe and fixes duplicate documentNo
         // generation on the next POS load.
-        OcrePosTerminalSupport.applyReportedDocumentSequences(terminalContext.terminal, orderJson);
-        OBDal.getInstance().flush();
-        OBDal.getInstance().refresh(order);
+        applyReportedDocumentSequences(terminalContext, orderJson);
         // Lay-by / layaway: a second sync reuses the same documentNo. Without an extra pass,
         // no new FIN_Payment rows are created and successive instalments never reach the server.
         // Contract: POS may resend the full payments[]; we only create rows whose computed
@@ -143,51 +146,53 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
           applyLayawayReentryOrderHeaderAndLinesFromPayload(order, orderJson);
           applyObposLayawayFromOrderLoaderRule(order, orderJson);
           OBDal.getInstance().save(order);
-          OBDal.getInstance().flush();
-          OBDal.getInstance().refresh(order);
-          createBasicPayments(orderJson, order, terminalContext, true);
-          OBDal.getInstance().flush();
+          if (hasPayments(orderJson)) {
+            stages.enter(OrderPersistenceStage.PAYMENTS);
+            createBasicPayments(orderJson, order, terminalContext, true);
+          }
         }
         // Same duplicate path: final "complete ticket" sync must close the order, generate
         // shipment/invoice, and set line flags — mirroring the non-duplicate path (which
         // duplicate previously skipped).
-        OBDal.getInstance().refresh(order);
+        stages.enter(OrderPersistenceStage.COMPLETE);
         // Before applyObposLayawayFromOrderLoaderRule: complete ticket clears em_obpos_islayaway.
         // For step "all" the payload is often STANDARD_SALE, so we must remember "was layaway"
-        // to still mark order lines as paid and generate shipment/invoice.
+        // to still mark order lines as paid and generate shipment/invoice. The session holds the
+        // persisted value: the order was read from the DB or flushed by the payment pass.
         final boolean wasPersistedLayaway = Boolean.TRUE.equals(order.isObposIslayaway());
         applyObposLayawayFromOrderLoaderRule(order, orderJson);
         if (isCompletedLaybyForNativeDocuments(orderJson, wasPersistedLayaway)) {
           markOrderLinesReadyForPosDocuments(order);
         }
-        OBDal.getInstance().save(order);
-        OBDal.getInstance().flush();
-        OBDal.getInstance().refresh(order);
         enrichOrderJsonForCompletedLayawayIfNeeded(orderJson, wasPersistedLayaway);
         if (isCompletedLaybyForNativeDocuments(orderJson, wasPersistedLayaway)) {
           completeOrder(order, orderJson);
         }
         OBDal.getInstance().save(order);
-        OBDal.getInstance().flush();
-        OBDal.getInstance().refresh(order);
         if (shouldCreateStandardPosDocuments(orderJson, wasPersistedLayaway)) {
+          stages.enter(OrderPersistenceStage.DOCUMENTS);
           nativeStandardDocumentsService.enrichOrderJsonDefaults(orderJson);
           nativeStandardDocumentsService.applyPosLineFlagsFromPayload(order, orderJson);
-          ShipmentInOut shipment = nativeStandardDocumentsService.createShipmentIfRequested(order,
-              orderJson);
-          nativeStandardDocumentsService.createInvoiceIfRequested(order, orderJson, shipment);
-          // Payments ran before invoice existed: link FIN_Payment PSD rows to the invoice plan.
-          alignOrderFinPaymentsToInvoiceIfPresent(order);
-          OBDal.getInstance().refresh(order);
+          if (DEFER_DOCUMENTS) {
+            enqueueDocuments(order, orderJson, false);
+          } else {
+            createShipmentAndInvoice(order, orderJson);
+            // Payments ran before invoice existed: link FIN_Payment PSD rows to the invoice plan.
+            alignOrderFinPaymentsToInvoiceIfPresent(order);
+          }
         }
         OBDal.getInstance().flush();
+        stages.finish();
         processedOrders.put(successOrderJson(order, true));
         continue;
       }
 
+      stages.enter(OrderPersistenceStage.LINES);
       createOrderLines(orderJson, order, terminalContext);
       ocreQuotationLinkageHelper.associateOrderToQuotationIfNeeded(order, orderJson);
-      OBDal.getInstance().refresh(order);
+
+      stages.enter(OrderPersistenceStage.COMPLETE);
+      // New order: the session value is the persisted one
       final boolean wasPersistedLayaway = Boolean.TRUE.equals(order.isObposIslayaway());
       if (shouldCompleteOrder(orderJson)) {
         completeOrder(order, orderJson);
@@ -195,39 +200,53 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
       // Parity with OrderLoader L436-437: drives getOrdersFilter @orderType LAY and isLayaway.
       applyObposLayawayFromOrderLoaderRule(order, orderJson);
       OBDal.getInstance().save(order);
-      // Lines + DB triggers must persist before shipment/invoice read order totals; otherwise
-      // grand total can still be 0 in memory and invoice + PSD→invoice links are skipped (no
-      // fin_payment_scheduledetail.fin_payment_schedule_invoice → empty Payment Details on invoice).
-      OBDal.getInstance().flush();
-      OBDal.getInstance().refresh(order);
-      if (isCompletedLaybyForNativeDocuments(orderJson, wasPersistedLayaway)) {
+
+      boolean completedLayby = isCompletedLaybyForNativeDocuments(orderJson, wasPersistedLayaway);
+      enrichOrderJsonForCompletedLayawayIfNeeded(orderJson, wasPersistedLayaway);
+      boolean standardDocuments = shouldCreateStandardPosDocuments(orderJson,
+          wasPersistedLayaway);
+      boolean returnReceipt = !standardDocuments && shouldCreateReturnReceipt(orderJson);
+      // Cancel and replace reads the shipment of the replacement to net the stock, so its
+      // documents are created in the same transaction.
+      boolean deferDocuments = DEFER_DOCUMENTS
+          && !"cancel_replace".equalsIgnoreCase(OrderFlowUtils.resolveStep(orderJson))
+          && (standardDocuments || returnReceipt);
+      if (completedLayby || standardDocuments || returnReceipt) {
+        // Lines + DB triggers must persist before shipment/invoice read order totals; otherwise
+        // grand total can still be 0 in memory and invoice + PSD→invoice links are skipped (no
+        // fin_payment_scheduledetail.fin_payment_schedule_invoice → empty Payment Details on
+        // invoice).
+        stages.enter(OrderPersistenceStage.DOCUMENTS);
+      }
+      if (completedLayby) {
         markOrderLinesReadyForPosDocuments(order);
         OBDal.getInstance().flush();
-        OBDal.getInstance().refresh(order);
       }
-      enrichOrderJsonForCompletedLayawayIfNeeded(orderJson, wasPersistedLayaway);
-      if (shouldCreateStandardPosDocuments(orderJson, wasPersistedLayaway)) {
+      if (standardDocuments) {
         nativeStandardDocumentsService.enrichOrderJsonDefaults(orderJson);
         nativeStandardDocumentsService.applyPosLineFlagsFromPayload(order, orderJson);
-        ShipmentInOut shipment = nativeStandardDocumentsService.createShipmentIfRequested(order,
-            orderJson);
-        nativeStandardDocumentsService.createInvoiceIfRequested(order, orderJson, shipment);
-        OBDal.getInstance().refresh(order);
-      } else if (shouldCreateReturnReceipt(orderJson)) {
+        if (!deferDocuments) {
+          createShipmentAndInvoice(order, orderJson);
+        }
+      } else if (returnReceipt && !deferDocuments) {
         // Verified returns generate a return receipt (negative customer shipment) so the returned
         // goods go back into stock. Scoped to the goods movement only: no credit note is issued
         // here (createInvoiceIfRequested would invoice the abs() quantity as a positive invoice).
         createReturnReceipt(order, orderJson);
-        OBDal.getInstance().refresh(order);
       }
-      if (shouldCreatePayments(orderJson)) {
+      if (shouldCreatePayments(orderJson) && hasPayments(orderJson)) {
+        stages.enter(OrderPersistenceStage.PAYMENTS);
         createBasicPayments(orderJson, order, terminalContext, false);
       }
+      if (deferDocuments) {
+        enqueueDocuments(order, orderJson, returnReceipt);
+      }
       OBDal.getInstance().flush();
+      stages.finish();
 
       applyCancelAndReplaceIfNeeded(order, orderJson);
 
-      OcrePosTerminalSupport.applyReportedDocumentSequences(terminalContext.terminal, orderJson);
+      applyReportedDocumentSequences(terminalContext, orderJson);
 
       processedOrders.put(successOrderJson(order, false));
     }
@@ -240,9 +259,68 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     return response;
   }
 
+  /**
+   * Creates the documents of an order imported with {@code ocws.orderImport.deferDocuments}: the
+   * shipment, the invoice and the stock update, then links the payments to the invoice; or the
+   * return receipt of a verified return. Runs for the {@code OCWS_OrderDocs} import entry created
+   * by {@link #enqueueDocuments}. Documents that already exist are reused, so running it again
+   * creates nothing. Orders cancelled or replaced in the meantime get no documents.
+   */
+  public void createDeferredDocuments(JSONObject documents) throws Exception {
+    Order order = OBDal.getInstance().get(Order.class, documents.getString("orderId"));
+    if (order == null) {
+      throw new OBException("Order " + documents.getString("orderId") + " not found");
+    }
+    if (Boolean.TRUE.equals(order.isCancelled()) || order.getReplacementorder() != null) {
+      // Cancelled or replaced after it was queued: its goods and payments were already netted
+      log.info("[OCOrder][core] deferred documents skipped, order {} is cancelled or replaced.",
+          order.getDocumentNo());
+      return;
+    }
+    JSONObject orderJson = documents.getJSONObject("order");
+    if (documents.optBoolean("returnReceipt", false)) {
+      createReturnReceipt(order, orderJson);
+    } else {
+      createShipmentAndInvoice(order, orderJson);
+      alignOrderFinPaymentsToInvoiceIfPresent(order);
+    }
+    OBDal.getInstance().flush();
+  }
+
+  /**
+   * Creates, in the transaction of the order, the {@code OCWS_OrderDocs} import entry that
+   * generates its documents. The entry id is derived from the order id, so an order gets at most
+   * one entry even if it is imported again.
+   */
+  private void enqueueDocuments(Order order, JSONObject orderJson, boolean returnReceipt)
+      throws Exception {
+    JSONObject documents = new JSONObject();
+    documents.put("orderId", order.getId());
+    documents.put("documentNo", order.getDocumentNo());
+    documents.put("returnReceipt", returnReceipt);
+    documents.put("order", orderJson);
+    String entryId = UUID
+        .nameUUIDFromBytes(("documents|" + order.getId()).getBytes(StandardCharsets.UTF_8))
+        .toString()
+        .replace("-", "")
+        .toUpperCase();
+    try {
+      // The manager finds the entry once the order is committed
+      ImportEntryBuilder
+          .newInstance(OCOrderImportConstants.DOCUMENTS_TYPE_OF_DATA, documents.toString())
+          .setId(entryId)
+          .setNotifyManager(false)
+          .create();
+    } catch (ImportEntryAlreadyExistsException e) {
+      log.debug("[OCOrder][core] documents of documentNo={} already queued",
+          order.getDocumentNo());
+    }
+  }
+
   /**
    * Parity with {@code OrderLoader.saveRecord}: apply cashup snapshot from the order payload before
-   * order persistence.
+   * order persistence. Unlike retail, the cashup is not committed on its own: it is committed with
+   * the ticket, so the entry locks, lane guards and batch savepoints of the caller survive.
    */
   private void updateCashUpReportIfPresent(JSONObject orderJson) throws Exception {
     if (!orderJson.has("cashUpReportInformation")) {
@@ -250,7 +328,7 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     }
     JSONObject jsonCashup = orderJson.getJSONObject("cashUpReportInformation");
     Date cashUpDate = new Date();
-    UpdateCashup.getAndUpdateCashUp(jsonCashup.getString("id"), jsonCashup, cashUpDate);
+    UpdateCashup.getAndUpdateCashUp(jsonCashup.getString("id"), jsonCashup, cashUpDate, false);
   }
 
   /**
@@ -407,6 +485,29 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     return FIN_Utility.getDocumentType(organization, "SOO");
   }
 
+  /** Creates the shipment and the invoice requested by the ticket, timing each of them. */
+  private void createShipmentAndInvoice(Order order, JSONObject orderJson) throws Exception {
+    OrderImportMetrics metrics = OrderImportMetrics.getInstance();
+    long start = System.nanoTime();
+    ShipmentInOut shipment = nativeStandardDocumentsService.createShipmentIfRequested(order,
+        orderJson);
+    metrics.recordStage(OrderImportMetrics.Stage.SHIPMENT, start);
+    start = System.nanoTime();
+    nativeStandardDocumentsService.createInvoiceIfRequested(order, orderJson, shipment);
+    metrics.recordStage(OrderImportMetrics.Stage.INVOICE, start);
+  }
+
+  private void applyReportedDocumentSequences(TerminalContext terminalContext,
+      JSONObject orderJson) {
+    long start = System.nanoTime();
+    OcrePosTerminalSupport.applyReportedDocumentSequences(terminalContext.terminal, orderJson);
+    OrderImportMetrics.getInstance().recordStage(OrderImportMetrics.Stage.SEQUENCES, start);
+  }
+
+  /**
+   * Creates the lines of a new order and their promotions. The inserts are sent in JDBC batches
+   * of {@code ocws.orderImport.jdbcBatchSize} rows (default 50, 0 or 1 disables batching).
+   */
   private void createOrderLines(JSONObject orderJson, Order order, TerminalContext ctx)
       throws Exception {
     JSONArray lines = orderJson.optJSONArray("lines");
@@ -414,12 +515,35 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
       throw new OBException("Order has no lines");
     }
 
+    long lookupStart = System.nanoTime();
+    OrderLineLookups lookups = OrderLineLookups.resolve(lines, order, ctx.client.getId());
+    OrderImportMetrics.getInstance()
+        .recordStage(OrderImportMetrics.Stage.TAX_RESOLUTION, lookupStart);
+    Session session = OBDal.getInstance().getSession();
+    Integer previousBatchSize = session.getJdbcBatchSize();
+    if (JDBC_BATCH_SIZE > 1) {
+      session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+    }
+    try {
+      saveOrderLines(orderJson, lines, order, lookups);
+    } finally {
+      session.setJdbcBatchSize(previousBatchSize);
+    }
+  }
+
+  /**
+   * Builds and saves the lines, then their promotions, and flushes them with the JDBC batch size
+   * of the session. Rows are saved table by table so the inserts of each table go in the same
+   * batches; the DB triggers still run for every row.
+   */
+  private void saveOrderLines(JSONObject orderJson, JSONArray lines, Order order,
+      OrderLineLookups lookups) throws Exception {
     BigDecimal sumNet = BigDecimal.ZERO;
     BigDecimal sumGross = BigDecimal.ZERO;
     List<PersistedOrderLine> persistedLines = new ArrayList<>();
     for (int i = 0; i < lines.length(); i++) {
       JSONObject lineJson = lines.getJSONObject(i);
-      Product product = resolveProduct(lineJson);
+      Product product = lookups.getProduct(lineJson);
       UOM uom = product.getUOM();
 
       BigDecimal qty = asBigDecimal(lineJson, "qty", BigDecimal.ONE);
@@ -442,7 +566,12 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
       BigDecimal grossListPrice = resolveLineGrossListPrice(lineJson, grossUnitPrice);
       BigDecimal baseGrossUnitPrice = resolveBaseGrossUnitPrice(lineJson, grossUnitPrice);
       BigDecimal lineGross = resolveLineGrossAmount(lineJson, qty, grossUnitPrice, lineNet);
-      TaxRate tax = resolveLineTax(lineJson, order, ctx, product);
+      TaxRate tax = lookups.getTax(lineJson, product);
+      if (tax == null) {
+        throw new OBException("Cannot resolve tax for order line. product="
+            + product.getSearchKey() + ", order=" + order.getDocumentNo() + ", org="
+            + order.getOrganization().getId());
+      }
 
       OrderLine line = OBProvider.getInstance().get(OrderLine.class);
       String payloadLineId = lineJson.optString("id", null);
@@ -474,14 +603,20 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
       line.setTaxableAmount(lineNet);
 
       applyObrdmLineFieldsFromPayload(lineJson, line);
-
-      OBDal.getInstance().save(line);
-      createLineOffers(lineJson, line, baseNetUnitPrice, baseGrossUnitPrice);
       linkVerifiedReturnToOriginalLine(lineJson, line);
-      persistedLines.add(new PersistedOrderLine(line, product, lineJson, payloadLineId));
+      persistedLines.add(new PersistedOrderLine(line, product, lineJson, payloadLineId,
+          baseNetUnitPrice, baseGrossUnitPrice));
       sumNet = sumNet.add(lineNet);
       sumGross = sumGross.add(lineGross);
     }
+    for (PersistedOrderLine persisted : persistedLines) {
+      OBDal.getInstance().save(persisted.orderLine);
+    }
+    for (PersistedOrderLine persisted : persistedLines) {
+      createLineOffers(persisted.lineJson, persisted.orderLine, persisted.baseNetUnitPrice,
+          persisted.baseGrossUnitPrice, lookups);
+    }
+    OBDal.getInstance().flush();
 
     createServiceRelationsForLinkedProducts(order, persistedLines);
 
@@ -511,7 +646,7 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
    * -&gt; whether it counts towards displayed totals.
    */
   private void createLineOffers(JSONObject lineJson, OrderLine line, BigDecimal baseNetUnitPrice,
-      BigDecimal baseGrossUnitPrice) throws JSONException {
+      BigDecimal baseGrossUnitPrice, OrderLineLookups lookups) throws JSONException {
     JSONArray promotions = lineJson.optJSONArray("promotions");
     if (promotions == null || promotions.length() == 0) {
       return;
@@ -531,7 +666,7 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
             line.getSalesOrder().getDocumentNo(), line.getLineNo());
         continue;
       }
-      PriceAdjustment offer = OBDal.getInstance().get(PriceAdjustment.class, offerId);
+      PriceAdjustment offer = lookups.getOffer(offerId);
       if (offer == null) {
         log.warn(
             "[OCOrder][core] line promotion discountRule {} not found; skipped. order={}, lineNo={}.",
@@ -781,21 +916,25 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     }
 
     Map<String, PersistedOrderLine> linesByPayloadId = new HashMap<>();
+    List<ServiceRelation> relations = new ArrayList<>();
+    Set<String> productIds = new HashSet<>();
     for (PersistedOrderLine line : persistedLines) {
       if (StringUtils.isNotBlank(line.payloadLineId)) {
         linesByPayloadId.put(line.payloadLineId, line);
       }
+      productIds.add(line.product.getId());
     }
+    Map<String, ProductMetadataCache.ProductMetadata> products = ProductMetadataCache.getInstance()
+        .getAll(productIds, order.getClient().getId());
 
     for (PersistedOrderLine serviceLine : persistedLines) {
-      ProductServiceConfig config = getProductServiceConfig(serviceLine.product.getId(),
-          order.getClient().getId());
+      ProductMetadataCache.ProductMetadata config = products.get(serviceLine.product.getId());
       if (!config.linkedToProduct) {
         continue;
       }
 
       List<OrderLine> relatedLines = resolveRelatedLinesForService(serviceLine, persistedLines,
-          linesByPayloadId, order);
+          linesByPayloadId, products, order);
       if (relatedLines.isEmpty()) {
         throw new OBException(
             "Missing service relation for linked service line " + serviceLine.orderLine.getLineNo()
@@ -811,14 +950,15 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
               : relatedLine.getUnitPrice();
         }
         BigDecimal amount = baseGross.multiply(quantity);
-        insertOrderLineServiceRelation(serviceLine.orderLine, relatedLine, quantity, amount);
+        relations.add(new ServiceRelation(serviceLine.orderLine, relatedLine, quantity, amount));
       }
     }
+    insertOrderLineServiceRelations(relations);
   }
 
   private List<OrderLine> resolveRelatedLinesForService(PersistedOrderLine serviceLine,
       List<PersistedOrderLine> persistedLines, Map<String, PersistedOrderLine> linesByPayloadId,
-      Order order) throws Exception {
+      Map<String, ProductMetadataCache.ProductMetadata> products, Order order) throws Exception {
     JSONArray relatedJsonLines = serviceLine.lineJson.optJSONArray("relatedLines");
     if (relatedJsonLines != null && relatedJsonLines.length() > 0) {
       Map<String, OrderLine> relatedById = new LinkedHashMap<>();
@@ -854,9 +994,7 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
       if (candidate.orderLine.getId().equals(serviceLine.orderLine.getId())) {
         continue;
       }
-      ProductServiceConfig candidateCfg = getProductServiceConfig(candidate.product.getId(),
-          order.getClient().getId());
-      if (candidateCfg.linkedToProduct) {
+      if (products.get(candidate.product.getId()).linkedToProduct) {
         continue;
       }
       allNonLinked.add(candidate);
@@ -888,8 +1026,12 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     return relatedQty;
   }
 
-  private void insertOrderLineServiceRelation(OrderLine serviceLine, OrderLine relatedLine,
-      BigDecimal quantity, BigDecimal amount) throws Exception {
+  /** Inserts the service relations in one JDBC batch. */
+  private void insertOrderLineServiceRelations(List<ServiceRelation> relations)
+      throws Exception {
+    if (relations.isEmpty()) {
+      return;
+    }
     String sql = "insert into c_orderline_servicerelation "
         + "(c_orderline_servicerelation_id, ad_client_id, ad_org_id, isactive, created, createdby, "
         + "updated, updatedby, c_orderline_id, c_orderline_related_id, amount, quantity) "
@@ -897,49 +1039,28 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     Date now = new Date();
     String userId = OBContext.getOBContext().getUser().getId();
     try (PreparedStatement ps = OBDal.getInstance().getConnection().prepareStatement(sql)) {
-      ps.setString(1, generateUuid32());
-      ps.setString(2, serviceLine.getClient().getId());
-      ps.setString(3, serviceLine.getOrganization().getId());
-      ps.setTimestamp(4, new Timestamp(now.getTime()));
-      ps.setString(5, userId);
-      ps.setTimestamp(6, new Timestamp(now.getTime()));
-      ps.setString(7, userId);
-      ps.setString(8, serviceLine.getId());
-      ps.setString(9, relatedLine.getId());
-      ps.setBigDecimal(10, amount);
-      ps.setBigDecimal(11, quantity);
-      ps.executeUpdate();
-    }
-  }
-
-  private ProductServiceConfig getProductServiceConfig(String productId, String clientId)
-      throws Exception {
-    ProductServiceConfig cached = serviceConfigCache.get(productId);
-    if (cached != null) {
-      return cached;
-    }
-
-    String sql = "select islinkedtoproduct, quantity_rule from m_product where m_product_id = ? "
-        + "and ad_client_id in ('0', ?)";
-    try (PreparedStatement ps = OBDal.getInstance().getConnection().prepareStatement(sql)) {
-      ps.setString(1, productId);
-      ps.setString(2, clientId);
-      try (ResultSet rs = ps.executeQuery()) {
-        if (rs.next()) {
-          ProductServiceConfig cfg = new ProductServiceConfig("Y".equals(rs.getString(1)),
-              rs.getString(2));
-          serviceConfigCache.put(productId, cfg);
-          return cfg;
-        }
+      for (ServiceRelation relation : relations) {
+        OrderLine serviceLine = relation.serviceLine;
+        ps.setString(1, generateUuid32());
+        ps.setString(2, serviceLine.getClient().getId());
+        ps.setString(3, serviceLine.getOrganization().getId());
+        ps.setTimestamp(4, new Timestamp(now.getTime()));
+        ps.setString(5, userId);
+        ps.setTimestamp(6, new Timestamp(now.getTime()));
+        ps.setString(7, userId);
+        ps.setString(8, serviceLine.getId());
+        ps.setString(9, relation.relatedLine.getId());
+        ps.setBigDecimal(10, relation.amount);
+        ps.setBigDecimal(11, relation.quantity);
+        ps.addBatch();
       }
+      ps.executeBatch();
     }
-
-    ProductServiceConfig cfg = new ProductServiceConfig(false, null);
-    serviceConfigCache.put(productId, cfg);
-    return cfg;
   }
 
   /**
+   * Runs in the {@link OrderPersistenceStage#PAYMENTS} stage, with the order flushed and refreshed.
+   *
    * @param skipIfFinPaymentDocumentNoExistsOnOrder when true (layaway duplicate re-import), skip
    *        creating a payment if a FIN_Payment with the same computed document number is already
    *        linked to this order's payment plan (idempotent full {@code payments[]} resend).
@@ -951,9 +1072,6 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
       return;
     }
 
-    OBDal.getInstance().flush();
-    OBDal.getInstance().refresh(order);
-
     List<FIN_Payment> created = new ArrayList<>();
     FIN_PaymentSchedule paymentSchedule = createOrReuseOrderPaymentSchedule(order);
     ensureInitialOutstandingPsdLikeOrderLoader(order, orderJson, paymentSchedule);
@@ -1326,6 +1444,11 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     return OrderFlowUtils.classify(orderJson) != OrderFlowType.QUOTATION;
   }
 
+  private boolean hasPayments(JSONObject orderJson) {
+    JSONArray payments = orderJson.optJSONArray("payments");
+    return payments != null && payments.length() > 0;
+  }
+
   /**
    * True for a completed verified return: it must generate a return receipt so the goods go back
    * into stock. Kept separate from {@link #shouldCreateStandardPosDocuments} because returns must
@@ -1453,7 +1576,6 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     order.setProcessNow(false);
     order.setDelivered(false);
     OBDal.getInstance().save(order);
-    OBDal.getInstance().flush();
   }
 
   /**
@@ -1838,124 +1960,6 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     return null;
   }
 
-  private TaxRate resolveLineTax(JSONObject lineJson, Order order, TerminalContext ctx,
-      Product product) throws Exception {
-    JSONObject taxLines = lineJson.optJSONObject("taxLines");
-    if (taxLines != null && taxLines.length() > 0) {
-      @SuppressWarnings("unchecked")
-      java.util.Iterator<String> keys = taxLines.keys();
-      if (keys.hasNext()) {
-        JSONObject firstTax = taxLines.optJSONObject(keys.next());
-        if (firstTax != null) {
-          BigDecimal rate = asBigDecimal(firstTax, "rate", null);
-          if (rate != null) {
-            TaxRate taxByRate = findTaxByRate(rate, order, ctx);
-            if (taxByRate != null) {
-              return taxByRate;
-            }
-          }
-        }
-      }
-    }
-
-    TaxRate taxByEngine = findTaxByEngine(order, product);
-    if (taxByEngine != null) {
-      return taxByEngine;
-    }
-
-    TaxRate taxByCategory = findTaxByProductTaxCategory(order, ctx, product);
-    if (taxByCategory != null) {
-      return taxByCategory;
-    }
-
-    String productKey = product != null ? product.getSearchKey() : "<unknown>";
-    throw new OBException("Cannot resolve tax for order line. product=" + productKey + ", order="
-        + order.getDocumentNo() + ", org=" + order.getOrganization().getId());
-  }
-
-  private TaxRate findTaxByRate(BigDecimal rate, Order order, TerminalContext ctx)
-      throws Exception {
-    Connection conn = OBDal.getInstance().getConnection();
-    String sql = "select c_tax_id from c_tax where isactive='Y' and rate = ? "
-        + "and ad_client_id = ? and ad_org_id in ('0', ?) "
-        + "order by case when ad_org_id = ? then 0 else 1 end";
-    try (PreparedStatement ps = conn.prepareStatement(sql)) {
-      ps.setBigDecimal(1, rate);
-      ps.setString(2, ctx.client.getId());
-      ps.setString(3, order.getOrganization().getId());
-      ps.setString(4, order.getOrganization().getId());
-      try (ResultSet rs = ps.executeQuery()) {
-        if (rs.next()) {
-          return OBDal.getInstance().get(TaxRate.class, rs.getString(1));
-        }
-      }
-    }
-    return null;
-  }
-
-  private TaxRate findTaxByEngine(Order order, Product product)
-      throws IOException, ServletException {
-    if (product == null) {
-      return null;
-    }
-    String bpBillToLocationId = order.getInvoiceAddress() != null
-        ? order.getInvoiceAddress().getId()
-        : order.getPartnerAddress() != null ? order.getPartnerAddress().getId() : "";
-    String bpLocationId = order.getPartnerAddress() != null ? order.getPartnerAddress().getId()
-        : "";
-    String warehouseId = order.getWarehouse() != null ? order.getWarehouse().getId() : "";
-    String projectId = order.getProject() != null ? order.getProject().getId() : "";
-    String promisedDate = DateFormatUtils.format(order.getOrderDate(),
-        OBPropertiesProvider.getInstance().getOpenbravoProperties().getProperty("dateFormat.java"));
-
-    String taxId = Tax.get(new DalConnectionProvider(), product.getId(), promisedDate,
-        order.getOrganization().getId(), warehouseId, bpBillToLocationId, bpLocationId, projectId,
-        order.isSalesTransaction());
-    if (StringUtils.isBlank(taxId)) {
-      return null;
-    }
-    return OBDal.getInstance().get(TaxRate.class, taxId);
-  }
-
-  private TaxRate findTaxByProductTaxCategory(Order order, TerminalContext ctx, Product product)
-      throws Exception {
-    if (product == null || product.getTaxCategory() == null) {
-      return null;
-    }
-    Connection conn = OBDal.getInstance().getConnection();
-    String sql = "select c_tax_id from c_tax where isactive='Y' and c_taxcategory_id = ? "
-        + "and ad_client_id = ? and ad_org_id in ('0', ?) "
-        + "order by case when ad_org_id = ? then 0 else 1 end, validfrom desc nulls last";
-    try (PreparedStatement ps = conn.prepareStatement(sql)) {
-      ps.setString(1, product.getTaxCategory().getId());
-      ps.setString(2, ctx.client.getId());
-      ps.setString(3, order.getOrganization().getId());
-      ps.setString(4, order.getOrganization().getId());
-      try (ResultSet rs = ps.executeQuery()) {
-        if (rs.next()) {
-          return OBDal.getInstance().get(TaxRate.class, rs.getString(1));
-        }
-      }
-    }
-    return null;
-  }
-
-  private Product resolveProduct(JSONObject lineJson) {
-    String productKey = lineJson.optString("product", null);
-    if (StringUtils.isBlank(productKey)) {
-      throw new OBException("Order line without product search key");
-    }
-
-    OBCriteria<Product> criteria = OBDal.getInstance().createCriteria(Product.class);
-    criteria.add(Restrictions.eq(Product.PROPERTY_SEARCHKEY, productKey));
-    criteria.setMaxResults(1);
-    Product product = (Product) criteria.uniqueResult();
-    if (product == null) {
-      throw new OBException("Product not found by search key: " + productKey);
-    }
-    return product;
-  }
-
   private BusinessPartner resolveBusinessPartner(JSONObject orderJson, TerminalContext ctx) {
     String bpId = orderJson.optString("businessPartnerId", null);
     if (isLikelyId(bpId)) {
@@ -2111,6 +2115,7 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     if (StringUtils.isBlank(documentNo)) {
       return null;
     }
+    // Single lookup on the EM_OCWS_CORDER_ORG_DOC index
     OBCriteria<Order> criteria = OBDal.getInstance().createCriteria(Order.class);
     criteria.add(Restrictions.eq(Order.PROPERTY_DOCUMENTNO, documentNo));
     criteria.add(Restrictions.eq(Order.PROPERTY_ORGANIZATION,
@@ -2442,23 +2447,32 @@ public class CoreOrderPersistenceAdapter implements OrderPersistencePort {
     final Product product;
     final JSONObject lineJson;
     final String payloadLineId;
+    final BigDecimal baseNetUnitPrice;
+    final BigDecimal baseGrossUnitPrice;
 
     PersistedOrderLine(OrderLine orderLine, Product product, JSONObject lineJson,
-        String payloadLineId) {
+        String payloadLineId, BigDecimal baseNetUnitPrice, BigDecimal baseGrossUnitPrice) {
       this.orderLine = orderLine;
       this.product = product;
       this.lineJson = lineJson;
       this.payloadLineId = payloadLineId;
+      this.baseNetUnitPrice = baseNetUnitPrice;
+      this.baseGrossUnitPrice = baseGrossUnitPrice;
     }
   }
 
-  private static class ProductServiceConfig {
-    final boolean linkedToProduct;
-    final String quantityRule;
+  private static class ServiceRelation {
+    final OrderLine serviceLine;
+    final OrderLine relatedLine;
+    final BigDecimal quantity;
+    final BigDecimal amount;
 
-    ProductServiceConfig(boolean linkedToProduct, String quantityRule) {
-      this.linkedToProduct = linkedToProduct;
-      this.quantityRule = quantityRule;
+    ServiceRelation(OrderLine serviceLine, OrderLine relatedLine, BigDecimal quantity,
+        BigDecimal amount) {
+      this.serviceLine = serviceLine;
+      this.relatedLine = relatedLine;
+      this.quantity = quantity;
+      this.amount = amount;
     }
   }
 
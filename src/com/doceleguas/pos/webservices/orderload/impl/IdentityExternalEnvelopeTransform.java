@@ -28,6 +28,11 @@ public class IdentityExternalEnvelopeTransform implements ExternalEnvelopeTransf
 
   @Override
   public JSONObject onInboundEnvelope(JSONObject envelope) throws JSONException {
+    if (envelope.optBoolean(NORMALIZED, false)) {
+      // Written by SaveOrder in this shape and parsed for this import only: no copy needed
+      applyParity(envelope.optJSONArray("data"));
+      return envelope;
+    }
     JSONObject normalized = new JSONObject(envelope.toString());
 
     if (!normalized.has("messageId")) {
@@ -62,13 +67,15 @@ public class IdentityExternalEnvelopeTransform implements ExternalEnvelopeTransf
       }
     }
 
-    JSONArray dataArray = normalized.optJSONArray("data");
+    applyParity(normalized.optJSONArray("data"));
+    return normalized;
+  }
+
+  private void applyParity(JSONArray dataArray) throws JSONException {
     if (dataArray != null) {
       for (int i = 0; i < dataArray.length(); i++) {
         externalOrderParityService.apply(dataArray.getJSONObject(i));
       }
     }
-
-    return normalized;
   }
 }
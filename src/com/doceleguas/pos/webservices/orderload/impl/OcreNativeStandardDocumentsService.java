@@ -9,8 +9,13 @@ package com.doceleguas.pos.webservices.orderload.impl;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.sql.CallableStatement;
+import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javax.enterprise.context.ApplicationScoped;
 
@@ -18,6 +23,7 @@ import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 import org.openbravo.base.exception.OBException;
 import org.openbravo.base.provider.OBProvider;
@@ -37,7 +43,6 @@ import org.openbravo.model.financialmgmt.tax.TaxRate;
 import org.openbravo.model.materialmgmt.transaction.MaterialTransaction;
 import org.openbravo.model.materialmgmt.transaction.ShipmentInOut;
 import org.openbravo.model.materialmgmt.transaction.ShipmentInOutLine;
-import org.openbravo.service.db.DalConnectionProvider;
 
 /**
  * Native (OBPL) implementation of POS shipment + invoice for standard completed sales, inspired by
@@ -506,56 +511,124 @@ public class OcreNativeStandardDocumentsService {
     return dt;
   }
 
+  /**
+   * Creates the material transactions of the stocked lines of a shipment and updates the stock.
+   * Movements of the same product, bin, attribute set and unit are added up and
+   * {@code M_UPDATE_INVENTORY} is called once for each of them, in a fixed order so concurrent
+   * imports lock the stock rows in the same order. The transactions are then inserted in JDBC
+   * batches of {@code ocws.orderImport.jdbcBatchSize} rows.
+   */
   private void updateInventoryForShipment(ShipmentInOut shipment) throws Exception {
-    org.openbravo.database.ConnectionProvider cp = new DalConnectionProvider(false);
-    CallableStatement st = cp.getConnection()
-        .prepareCall("{call M_UPDATE_INVENTORY (?,?,?,?,?,?,?,?,?,?,?,?,?)}");
-    try {
-      for (ShipmentInOutLine line : shipment.getMaterialMgmtShipmentInOutLineList()) {
-        if (!"I".equals(line.getProduct().getProductType()) || !line.getProduct().isStocked()) {
-          continue;
-        }
-        MaterialTransaction tr = OBProvider.getInstance().get(MaterialTransaction.class);
-        tr.setOrganization(line.getOrganization());
-        tr.setMovementType(shipment.getMovementType());
-        tr.setProduct(line.getProduct());
-        tr.setStorageBin(line.getStorageBin());
-        tr.setOrderUOM(line.getOrderUOM());
-        tr.setUOM(line.getUOM());
-        tr.setOrderQuantity(line.getOrderQuantity());
-        tr.setMovementQuantity(line.getMovementQuantity().multiply(NEG_ONE));
-        tr.setMovementDate(shipment.getMovementDate());
-        tr.setGoodsShipmentLine(line);
-        tr.setAttributeSetValue(line.getAttributeSetValue());
-        tr.setId(line.getId());
-        tr.setNewOBObject(true);
-        fillUpdateInventoryStatement(st, tr);
+    List<ShipmentInOutLine> lines = shipment.getMaterialMgmtShipmentInOutLineList();
+    Set<String> productIds = new HashSet<>();
+    for (ShipmentInOutLine line : lines) {
+      productIds.add(line.getProduct().getId());
+    }
+    Map<String, ProductMetadataCache.ProductMetadata> products = ProductMetadataCache.getInstance()
+        .getAll(productIds, shipment.getClient().getId());
+
+    List<MaterialTransaction> transactions = new ArrayList<>();
+    Map<String, StockMovement> movements = new TreeMap<>();
+    for (ShipmentInOutLine line : lines) {
+      if (!products.get(line.getProduct().getId()).isStockedItem()) {
+        continue;
+      }
+      MaterialTransaction tr = OBProvider.getInstance().get(MaterialTransaction.class);
+      tr.setOrganization(line.getOrganization());
+      tr.setMovementType(shipment.getMovementType());
+      tr.setProduct(line.getProduct());
+      tr.setStorageBin(line.getStorageBin());
+      tr.setOrderUOM(line.getOrderUOM());
+      tr.setUOM(line.getUOM());
+      tr.setOrderQuantity(line.getOrderQuantity());
+      tr.setMovementQuantity(line.getMovementQuantity().multiply(NEG_ONE));
+      tr.setMovementDate(shipment.getMovementDate());
+      tr.setGoodsShipmentLine(line);
+      tr.setAttributeSetValue(line.getAttributeSetValue());
+      tr.setId(line.getId());
+      tr.setNewOBObject(true);
+      transactions.add(tr);
+      StockMovement movement = new StockMovement(tr);
+      movements.merge(movement.getKey(), movement, StockMovement::add);
+    }
+    if (transactions.isEmpty()) {
+      return;
+    }
+
+    Connection conn = OBDal.getInstance().getConnection(false);
+    try (CallableStatement st = conn
+        .prepareCall("{call M_UPDATE_INVENTORY (?,?,?,?,?,?,?,?,?,?,?,?,?)}")) {
+      for (StockMovement movement : movements.values()) {
+        fillUpdateInventoryStatement(st, movement);
         st.execute();
+      }
+    }
+
+    Session session = OBDal.getInstance().getSession();
+    Integer previousBatchSize = session.getJdbcBatchSize();
+    if (CoreOrderPersistenceAdapter.JDBC_BATCH_SIZE > 1) {
+      session.setJdbcBatchSize(CoreOrderPersistenceAdapter.JDBC_BATCH_SIZE);
+    }
+    try {
+      for (MaterialTransaction tr : transactions) {
         OBDal.getInstance().save(tr);
       }
+      OBDal.getInstance().flush();
     } finally {
-      st.close();
+      session.setJdbcBatchSize(previousBatchSize);
     }
   }
 
   private void fillUpdateInventoryStatement(CallableStatement updateStockStatement,
-      MaterialTransaction transaction) throws Exception {
+      StockMovement movement) throws Exception {
     updateStockStatement.setString(1, OBContext.getOBContext().getCurrentClient().getId());
     updateStockStatement.setString(2, OBContext.getOBContext().getCurrentOrganization().getId());
     updateStockStatement.setString(3, OBContext.getOBContext().getUser().getId());
-    updateStockStatement.setString(4, transaction.getProduct().getId());
-    updateStockStatement.setString(5, transaction.getStorageBin().getId());
-    updateStockStatement.setString(6,
-        transaction.getAttributeSetValue() != null ? transaction.getAttributeSetValue().getId()
-            : null);
-    updateStockStatement.setString(7, transaction.getUOM().getId());
+    updateStockStatement.setString(4, movement.productId);
+    updateStockStatement.setString(5, movement.storageBinId);
+    updateStockStatement.setString(6, movement.attributeSetValueId);
+    updateStockStatement.setString(7, movement.uomId);
     updateStockStatement.setString(8, null);
-    updateStockStatement.setBigDecimal(9, transaction.getMovementQuantity());
-    updateStockStatement.setBigDecimal(10, transaction.getOrderQuantity());
+    updateStockStatement.setBigDecimal(9, movement.movementQuantity);
+    updateStockStatement.setBigDecimal(10, movement.orderQuantity);
     updateStockStatement.setDate(11, null);
     updateStockStatement.setBigDecimal(12, BigDecimal.ZERO);
     updateStockStatement.setBigDecimal(13,
-        transaction.getOrderQuantity() != null ? transaction.getOrderQuantity().multiply(NEG_ONE)
-            : null);
+        movement.orderQuantity != null ? movement.orderQuantity.multiply(NEG_ONE) : null);
+  }
+
+  /** Stock change of one product, bin, attribute set and unit, added up over the lines. */
+  private static class StockMovement {
+    final String productId;
+    final String storageBinId;
+    final String attributeSetValueId;
+    final String uomId;
+    BigDecimal movementQuantity;
+    BigDecimal orderQuantity;
+
+    StockMovement(MaterialTransaction transaction) {
+      productId = transaction.getProduct().getId();
+      storageBinId = transaction.getStorageBin().getId();
+      attributeSetValueId = transaction.getAttributeSetValue() != null
+          ? transaction.getAttributeSetValue().getId()
+          : null;
+      uomId = transaction.getUOM().getId();
+      movementQuantity = transaction.getMovementQuantity();
+      orderQuantity = transaction.getOrderQuantity();
+    }
+
+    String getKey() {
+      return productId + "|" + storageBinId + "|" + StringUtils.defaultString(attributeSetValueId)
+          + "|" + uomId;
+    }
+
+    StockMovement add(StockMovement other) {
+      movementQuantity = movementQuantity.add(other.movementQuantity);
+      if (other.orderQuantity != null) {
+        orderQuantity = orderQuantity != null ? orderQuantity.add(other.orderQuantity)
+            : other.orderQuantity;
+      }
+      return this;
+    }
   }
 }
@@ -0,0 +1,320 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orderload.impl;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.criterion.Restrictions;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.session.OBPropertiesProvider;
+import org.openbravo.base.structure.BaseOBObject;
+import org.openbravo.dal.service.OBCriteria;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.businessUtility.Tax;
+import org.openbravo.model.common.order.Order;
+import org.openbravo.model.common.plm.Product;
+import org.openbravo.model.financialmgmt.tax.TaxRate;
+import org.openbravo.model.pricing.priceadjustment.PriceAdjustment;
+import org.openbravo.service.db.DalConnectionProvider;
+
+/**
+ * Products, taxes and promotions referenced by the lines of one order, resolved before the lines
+ * are built so line construction does not query per line.
+ *
+ * Each set is read with a single {@code IN} query: products by search key, taxes by the rate of
+ * the first {@code taxLines} entry, taxes by product tax category and promotions by id. Lines
+ * whose rate does not match a tax fall back, as before, to the tax engine and then to the
+ * product tax category; the engine ({@code C_GETTAX}) is still called once per distinct product
+ * that needs it. The tax ids are shared between orders through {@link TaxResolutionCache}.
+ */
+final class OrderLineLookups {
+
+  private static final String TAX_BY_RATE_SQL = "select rate, c_tax_id from c_tax"
+      + " where isactive='Y' and rate in (%s) and ad_client_id = ? and ad_org_id in ('0', ?)"
+      + " order by case when ad_org_id = ? then 0 else 1 end";
+  private static final String TAX_BY_CATEGORY_SQL = "select c_taxcategory_id, c_tax_id from c_tax"
+      + " where isactive='Y' and c_taxcategory_id in (%s) and ad_client_id = ?"
+      + " and ad_org_id in ('0', ?)"
+      + " order by case when ad_org_id = ? then 0 else 1 end, validfrom desc nulls last";
+
+  private final Map<String, Product> productsBySearchKey;
+  private final Map<BigDecimal, TaxRate> taxesByRate;
+  private final Map<String, TaxRate> fallbackTaxesByProduct;
+  private final Map<String, PriceAdjustment> offersById;
+
+  private OrderLineLookups(Map<String, Product> productsBySearchKey,
+      Map<BigDecimal, TaxRate> taxesByRate, Map<String, TaxRate> fallbackTaxesByProduct,
+      Map<String, PriceAdjustment> offersById) {
+    this.productsBySearchKey = Collections.unmodifiableMap(productsBySearchKey);
+    this.taxesByRate = Collections.unmodifiableMap(taxesByRate);
+    this.fallbackTaxesByProduct = Collections.unmodifiableMap(fallbackTaxesByProduct);
+    this.offersById = Collections.unmodifiableMap(offersById);
+  }
+
+  /** Resolves everything the order lines reference. The order header must be already set. */
+  static OrderLineLookups resolve(JSONArray lines, Order order, String clientId)
+      throws Exception {
+    Set<String> productKeys = new LinkedHashSet<>();
+    Set<BigDecimal> rates = new LinkedHashSet<>();
+    Set<String> offerIds = new LinkedHashSet<>();
+    for (int i = 0; i < lines.length(); i++) {
+      JSONObject lineJson = lines.getJSONObject(i);
+      productKeys.add(getProductKey(lineJson));
+      BigDecimal rate = getLineTaxRate(lineJson);
+      if (rate != null) {
+        rates.add(rate);
+      }
+      JSONArray promotions = lineJson.optJSONArray("promotions");
+      for (int p = 0; promotions != null && p < promotions.length(); p++) {
+        JSONObject promoJson = promotions.optJSONObject(p);
+        String offerId = promoJson != null ? promoJson.optString("discountRule", null) : null;
+        if (StringUtils.isNotBlank(offerId) && offerId.length() == 32) {
+          offerIds.add(offerId);
+        }
+      }
+    }
+
+    Map<String, Product> products = findProducts(productKeys);
+    String orgId = order.getOrganization().getId();
+    TaxResolutionCache taxCache = TaxResolutionCache.getInstance();
+    long cacheGeneration = taxCache.getGeneration();
+
+    Map<BigDecimal, String> taxIdsByRate = new HashMap<>();
+    Set<BigDecimal> uncachedRates = new LinkedHashSet<>();
+    for (BigDecimal rate : rates) {
+      String taxId = taxCache.get(new TaxResolutionCache.RateKey(rate, clientId, orgId));
+      if (taxId == null) {
+        uncachedRates.add(rate);
+      } else if (!taxId.isEmpty()) {
+        taxIdsByRate.put(rate, taxId);
+      }
+    }
+    Map<BigDecimal, String> foundByRate = findTaxIds(TAX_BY_RATE_SQL, uncachedRates, clientId,
+        orgId);
+    for (BigDecimal rate : uncachedRates) {
+      taxCache.put(new TaxResolutionCache.RateKey(rate, clientId, orgId), foundByRate.get(rate),
+          cacheGeneration);
+    }
+    taxIdsByRate.putAll(foundByRate);
+
+    // Lines without a matching rate fall back to the tax engine and then to the tax category
+    Map<String, String> fallbackTaxIds = new HashMap<>();
+    Map<String, String> productsWithoutTax = new HashMap<>();
+    for (int i = 0; i < lines.length(); i++) {
+      JSONObject lineJson = lines.getJSONObject(i);
+      BigDecimal rate = getLineTaxRate(lineJson);
+      if (rate != null && taxIdsByRate.containsKey(rate)) {
+        continue;
+      }
+      Product product = products.get(getProductKey(lineJson));
+      if (fallbackTaxIds.containsKey(product.getId())
+          || productsWithoutTax.containsKey(product.getId())) {
+        continue;
+      }
+      String taxId = getTaxIdByEngine(order, product, taxCache, cacheGeneration);
+      if (StringUtils.isNotBlank(taxId)) {
+        fallbackTaxIds.put(product.getId(), taxId);
+      } else if (product.getTaxCategory() != null) {
+        productsWithoutTax.put(product.getId(), product.getTaxCategory().getId());
+      }
+    }
+    if (!productsWithoutTax.isEmpty()) {
+      Map<String, String> taxIdsByCategory = new HashMap<>();
+      Set<String> uncachedCategories = new LinkedHashSet<>();
+      for (String taxCategoryId : new LinkedHashSet<>(productsWithoutTax.values())) {
+        String taxId = taxCache
+            .get(new TaxResolutionCache.CategoryKey(taxCategoryId, clientId, orgId));
+        if (taxId == null) {
+          uncachedCategories.add(taxCategoryId);
+        } else if (!taxId.isEmpty()) {
+          taxIdsByCategory.put(taxCategoryId, taxId);
+        }
+      }
+      Map<String, String> foundByCategory = findTaxIds(TAX_BY_CATEGORY_SQL, uncachedCategories,
+          clientId, orgId);
+      for (String taxCategoryId : uncachedCategories) {
+        taxCache.put(new TaxResolutionCache.CategoryKey(taxCategoryId, clientId, orgId),
+            foundByCategory.get(taxCategoryId), cacheGeneration);
+      }
+      taxIdsByCategory.putAll(foundByCategory);
+      for (Map.Entry<String, String> entry : productsWithoutTax.entrySet()) {
+        String taxId = taxIdsByCategory.get(entry.getValue());
+        if (taxId != null) {
+          fallbackTaxIds.put(entry.getKey(), taxId);
+        }
+      }
+    }
+
+    Set<String> taxIds = new LinkedHashSet<>(taxIdsByRate.values());
+    taxIds.addAll(fallbackTaxIds.values());
+    Map<String, TaxRate> taxes = findById(TaxRate.class, taxIds);
+    Map<BigDecimal, TaxRate> taxesByRate = new HashMap<>();
+    taxIdsByRate.forEach((rate, taxId) -> taxesByRate.put(rate, taxes.get(taxId)));
+    Map<String, TaxRate> fallbackTaxes = new HashMap<>();
+    fallbackTaxIds.forEach((productId, taxId) -> fallbackTaxes.put(productId, taxes.get(taxId)));
+
+    return new OrderLineLookups(products, taxesByRate, fallbackTaxes,
+        findById(PriceAdjustment.class, offerIds));
+  }
+
+  Product getProduct(JSONObject lineJson) {
+    return productsBySearchKey.get(getProductKey(lineJson));
+  }
+
+  /**
+   * Tax of the line: the one matching the rate of its first {@code taxLines} entry, otherwise the
+   * engine or tax category one of its product. Null if none was found.
+   */
+  TaxRate getTax(JSONObject lineJson, Product product) {
+    BigDecimal rate = getLineTaxRate(lineJson);
+    TaxRate tax = rate != null ? taxesByRate.get(rate) : null;
+    return tax != null ? tax : fallbackTaxesByProduct.get(product.getId());
+  }
+
+  /** Returns the promotion or null if it does not exist. */
+  PriceAdjustment getOffer(String offerId) {
+    return offersById.get(offerId);
+  }
+
+  private static String getProductKey(JSONObject lineJson) {
+    String productKey = lineJson.optString("product", null);
+    if (StringUtils.isBlank(productKey)) {
+      throw new OBException("Order line without product search key");
+    }
+    return productKey;
+  }
+
+  /** Rate of the first {@code taxLines} entry, without trailing zeros so it can be a map key. */
+  private static BigDecimal getLineTaxRate(JSONObject lineJson) {
+    JSONObject taxLines = lineJson.optJSONObject("taxLines");
+    if (taxLines == null || taxLines.length() == 0) {
+      return null;
+    }
+    Iterator<?> keys = taxLines.keys();
+    JSONObject firstTax = taxLines.optJSONObject((String) keys.next());
+    if (firstTax == null || firstTax.isNull("rate")) {
+      return null;
+    }
+    try {
+      String rate = firstTax.opt("rate").toString();
+      return StringUtils.isBlank(rate) ? null : new BigDecimal(rate).stripTrailingZeros();
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Map<String, Product> findProducts(Set<String> searchKeys) {
+    OBCriteria<Product> criteria = OBDal.getInstance().createCriteria(Product.class);
+    criteria.add(Restrictions.in(Product.PROPERTY_SEARCHKEY, searchKeys));
+    Map<String, Product> products = new HashMap<>();
+    for (Product product : criteria.list()) {
+      products.putIfAbsent(product.getSearchKey(), product);
+    }
+    for (String searchKey : searchKeys) {
+      if (!products.containsKey(searchKey)) {
+        throw new OBException("Product not found by search key: " + searchKey);
+      }
+    }
+    return products;
+  }
+
+  /**
+   * Runs one of the c_tax queries for all the keys and returns the first tax of each key, the
+   * organization one before the ones of {@code *}.
+   */
+  @SuppressWarnings("unchecked")
+  private static <K> Map<K, String> findTaxIds(String sql, Collection<K> keys, String clientId,
+      String orgId) throws Exception {
+    Map<K, String> taxIds = new HashMap<>();
+    if (keys.isEmpty()) {
+      return taxIds;
+    }
+    Connection conn = OBDal.getInstance().getConnection();
+    String placeholders = StringUtils.repeat("?", ",", keys.size());
+    try (PreparedStatement ps = conn.prepareStatement(String.format(sql, placeholders))) {
+      int index = 1;
+      for (K key : keys) {
+        ps.setObject(index++, key);
+      }
+      ps.setString(index++, clientId);
+      ps.setString(index++, orgId);
+      ps.setString(index, orgId);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          Object key = rs.getObject(1);
+          if (key instanceof BigDecimal) {
+            key = ((BigDecimal) key).stripTrailingZeros();
+          }
+          taxIds.putIfAbsent((K) key, rs.getString(2));
+        }
+      }
+    }
+    return taxIds;
+  }
+
+  private static String getTaxIdByEngine(Order order, Product product,
+      TaxResolutionCache taxCache, long cacheGeneration) throws Exception {
+    String bpBillToLocationId = order.getInvoiceAddress() != null
+        ? order.getInvoiceAddress().getId()
+        : order.getPartnerAddress() != null ? order.getPartnerAddress().getId() : "";
+    String bpLocationId = order.getPartnerAddress() != null ? order.getPartnerAddress().getId()
+        : "";
+    String warehouseId = order.getWarehouse() != null ? order.getWarehouse().getId() : "";
+    String projectId = order.getProject() != null ? order.getProject().getId() : "";
+    String promisedDate = DateFormatUtils.format(order.getOrderDate(),
+        OBPropertiesProvider.getInstance().getOpenbravoProperties().getProperty("dateFormat.java"));
+
+    TaxResolutionCache.EngineKey key = new TaxResolutionCache.EngineKey(product.getId(),
+        order.getOrganization().getId(), warehouseId, bpBillToLocationId, bpLocationId, projectId,
+        promisedDate, order.isSalesTransaction());
+    String cached = taxCache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    String taxId = Tax.get(new DalConnectionProvider(), product.getId(), promisedDate,
+        order.getOrganization().getId(), warehouseId, bpBillToLocationId, bpLocationId, projectId,
+        order.isSalesTransaction());
+    taxCache.put(key, StringUtils.isBlank(taxId) ? null : taxId, cacheGeneration);
+    return taxId;
+  }
+
+  /** Loads the records with the given ids, like {@code OBDal.get} does, in one query. */
+  private static <T extends BaseOBObject> Map<String, T> findById(Class<T> entityClass,
+      Set<String> ids) {
+    Map<String, T> byId = new LinkedHashMap<>();
+    if (ids.isEmpty()) {
+      return byId;
+    }
+    OBCriteria<T> criteria = OBDal.getInstance().createCriteria(entityClass);
+    criteria.add(Restrictions.in("id", new ArrayList<>(ids)));
+    criteria.setFilterOnActive(false);
+    criteria.setFilterOnReadableClients(false);
+    criteria.setFilterOnReadableOrganization(false);
+    List<T> records = criteria.list();
+    for (T record : records) {
+      byId.put((String) record.getId(), record);
+    }
+    return byId;
+  }
+}
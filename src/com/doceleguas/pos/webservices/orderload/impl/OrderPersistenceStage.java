@@ -0,0 +1,57 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orderload.impl;
+
+import com.doceleguas.pos.webservices.orderload.OrderImportMetrics;
+
+/**
+ * Stages of the persistence of one ticket, in the order they run. A stage that reads values
+ * computed by the database triggers, or that changes the order header, starts with a flush and a
+ * refresh of the order; the others work on the session state. The DAL writes every column of the
+ * header on update, so a header changed before the refresh would write back the totals it was
+ * created with over the ones {@code C_ORDERLINE_TRG} computed.
+ */
+enum OrderPersistenceStage {
+
+  /** Order header, lines, promotions and quotation links. Reads no trigger results. */
+  LINES(false, OrderImportMetrics.Stage.LINES),
+
+  /**
+   * Document status and layaway flag of the header. Changes the header, so it first gets the
+   * totals the lines of the previous stages left in the database.
+   */
+  COMPLETE(true, OrderImportMetrics.Stage.COMPLETE),
+
+  /**
+   * Shipment and invoice. Reads the header totals ({@code TotalLines}, {@code GrandTotal}) that
+   * {@code C_ORDERLINE_TRG} keeps, and the persisted line list.
+   */
+  DOCUMENTS(true, OrderImportMetrics.Stage.DOCUMENTS),
+
+  /**
+   * Payment plan and payments. Reads {@code GrandTotal} and, after the documents stage, the
+   * invoice linked to the order.
+   */
+  PAYMENTS(true, OrderImportMetrics.Stage.PAYMENTS);
+
+  private final boolean needsTriggerResults;
+  private final OrderImportMetrics.Stage metricsStage;
+
+  OrderPersistenceStage(boolean needsTriggerResults, OrderImportMetrics.Stage metricsStage) {
+    this.needsTriggerResults = needsTriggerResults;
+    this.metricsStage = metricsStage;
+  }
+
+  boolean needsTriggerResults() {
+    return needsTriggerResults;
+  }
+
+  /** Histogram the time spent in the stage is recorded in. */
+  OrderImportMetrics.Stage getMetricsStage() {
+    return metricsStage;
+  }
+}
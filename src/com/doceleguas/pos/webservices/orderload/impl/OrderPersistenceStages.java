@@ -0,0 +1,58 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orderload.impl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.common.order.Order;
+
+import com.doceleguas.pos.webservices.orderload.OrderImportMetrics;
+
+/**
+ * Runs the stage boundaries of one ticket: flushes and refreshes the order only when entering a
+ * stage that needs the trigger results, and records in {@link OrderImportMetrics} (and logs at debug
+ * level) the time spent in every stage.
+ */
+final class OrderPersistenceStages {
+  private static final Logger log = LogManager.getLogger();
+
+  private final Order order;
+  private OrderPersistenceStage current;
+  private long stageStart;
+
+  OrderPersistenceStages(Order order) {
+    this.order = order;
+  }
+
+  void enter(OrderPersistenceStage stage) {
+    finishCurrent();
+    current = stage;
+    stageStart = System.nanoTime();
+    if (stage.needsTriggerResults()) {
+      OBDal.getInstance().flush();
+      OBDal.getInstance().refresh(order);
+    }
+  }
+
+  /** Ends the last stage. */
+  void finish() {
+    finishCurrent();
+    current = null;
+  }
+
+  private void finishCurrent() {
+    if (current == null) {
+      return;
+    }
+    OrderImportMetrics.getInstance().recordStage(current.getMetricsStage(), stageStart);
+    if (log.isDebugEnabled()) {
+      log.debug("[OCOrder][core] documentNo={} stage={} took {} ms", order.getDocumentNo(),
+          current, (System.nanoTime() - stageStart) / 1_000_000);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.orderload.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.jmx.MBeanRegistry;
+
+import com.doceleguas.pos.webservices.utils.ExpiringCache;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Product attributes read by the order import, shared by all the import threads: service
+ * configuration, product type and stocked flag. Lets the import work with product ids instead of
+ * loading {@code Product} proxies one by one. Missing products are read with one query.
+ *
+ * A product is dropped when it changes (see {@code ProductMetadataCacheEventHandler}), at flush
+ * time and again once the transaction completes: a product read before the change is committed is
+ * dropped by the second eviction, or not stored if the read was still running.
+ *
+ * Hit and miss counters are published as the {@code OCWSProductMetadataCache} MBean.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.productCache.ttl seconds an entry is kept (default 600)</li>
+ * <li>ocws.productCache.maxEntries (default 50000)</li>
+ * </ul>
+ */
+public class ProductMetadataCache implements ProductMetadataCacheMBean {
+
+  private static final String SQL = "select m_product_id, islinkedtoproduct, quantity_rule,"
+      + " producttype, isstocked from m_product"
+      + " where m_product_id in (%s) and ad_client_id in ('0', ?)";
+
+  private static final ProductMetadataCache INSTANCE = new ProductMetadataCache();
+
+  private final ExpiringCache<String, ProductMetadata> products;
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public static ProductMetadataCache getInstance() {
+    return INSTANCE;
+  }
+
+  private ProductMetadataCache() {
+    long ttlMillis = OcwsProperties.getLong("ocws.productCache.ttl", 600) * 1000L;
+    int maxEntries = OcwsProperties.getInt("ocws.productCache.maxEntries", 50000);
+    products = new ExpiringCache<>(ttlMillis, maxEntries);
+    MBeanRegistry.registerMBean("OCWSProductMetadataCache", this);
+  }
+
+  /**
+   * Returns the metadata of the products by id. A product that does not exist for the client is
+   * returned as a stocked item that is not a linked service.
+   */
+  Map<String, ProductMetadata> getAll(Collection<String> productIds, String clientId)
+      throws Exception {
+    Map<String, ProductMetadata> result = new HashMap<>();
+    Set<String> missing = new LinkedHashSet<>();
+    for (String productId : productIds) {
+      ProductMetadata metadata = products.get(productId);
+      if (metadata != null) {
+        result.put(productId, metadata);
+      } else {
+        missing.add(productId);
+      }
+    }
+    hits.addAndGet(result.size());
+    misses.addAndGet(missing.size());
+    if (missing.isEmpty()) {
+      return result;
+    }
+
+    long readGeneration = generation.get();
+    List<String> ids = new ArrayList<>(missing);
+    String sql = String.format(SQL, StringUtils.repeat("?", ",", ids.size()));
+    try (PreparedStatement ps = OBDal.getInstance().getConnection(false).prepareStatement(sql)) {
+      int index = 1;
+      for (String id : ids) {
+        ps.setString(index++, id);
+      }
+      ps.setString(index, clientId);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          result.put(rs.getString(1),
+              new ProductMetadata("Y".equals(rs.getString(2)), rs.getString(3), rs.getString(4),
+                  "Y".equals(rs.getString(5))));
+        }
+      }
+    }
+    for (String id : ids) {
+      ProductMetadata metadata = result.computeIfAbsent(id,
+          key -> new ProductMetadata(false, null, "I", true));
+      if (readGeneration == generation.get()) {
+        products.put(id, metadata);
+      }
+    }
+    return result;
+  }
+
+  /** Drops a product. */
+  public void evict(String productId) {
+    generation.incrementAndGet();
+    products.remove(productId);
+  }
+
+  @Override
+  public void clear() {
+    generation.incrementAndGet();
+    products.clear();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long total = hits.get() + misses.get();
+    return total == 0 ? 0 : (double) hits.get() / total;
+  }
+
+  @Override
+  public int getSize() {
+    return products.size();
+  }
+
+  @Override
+  public void resetCounters() {
+    hits.set(0);
+    misses.set(0);
+  }
+
+  static final class ProductMetadata {
+    final boolean linkedToProduct;
+    final String quantityRule;
+    final String productType;
+    final boolean stocked;
+
+    ProductMetadata(boolean linkedToProduct, String quantityRule, String productType,
+        boolean stocked) {
+      this.linkedToProduct = linkedToProduct;
+      this.quantityRule = quantityRule;
+      this.productType = productType;
+      this.stocked = stocked;
+    }
+
+    /** Whether shipping the product moves stock. */
+    boolean isStockedItem() {
+      return "I".equals(productType) && stocked;
+    }
+  }
+}
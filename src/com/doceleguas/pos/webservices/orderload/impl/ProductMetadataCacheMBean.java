@@ -0,0 +1,24 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.orderload.impl;
+
+public interface ProductMetadataCacheMBean {
+
+  long getHits();
+
+  long getMisses();
+
+  double getHitRatio();
+
+  int getSize();
+
+  void clear();
+
+  void resetCounters();
+
+}
@@ -0,0 +1,249 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.orderload.impl;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openbravo.jmx.MBeanRegistry;
+
+import com.doceleguas.pos.webservices.utils.ExpiringCache;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Tax ids resolved during order import, shared by all the import threads. Three kinds of lookups
+ * are cached: tax by rate ({@link RateKey}), tax engine result ({@link EngineKey}) and tax by
+ * product tax category ({@link CategoryKey}). "No tax found" is cached too.
+ *
+ * Everything is dropped when a tax, tax category or tax zone changes, and the engine results of a
+ * product when the product changes (see {@code TaxResolutionCacheEventHandler}). Other inputs of
+ * the tax engine, such as business partner tax exemptions, rely on the TTL. The handler evicts at
+ * flush time and again once the transaction completes: a value read before the change is
+ * committed is dropped by the second eviction, or not stored if the read was still running.
+ *
+ * Hit and miss counters are published as the {@code OCWSTaxResolutionCache} MBean.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.taxCache.enabled (default true)</li>
+ * <li>ocws.taxCache.ttl seconds an entry is kept (default 600)</li>
+ * <li>ocws.taxCache.maxEntries per kind of lookup (default 10000)</li>
+ * </ul>
+ */
+public class TaxResolutionCache implements TaxResolutionCacheMBean {
+
+  /** Cached value meaning that no tax was found. */
+  private static final String NO_TAX = "";
+
+  private static final TaxResolutionCache INSTANCE = new TaxResolutionCache();
+
+  private final boolean enabled;
+  private final ExpiringCache<RateKey, String> byRate;
+  private final ExpiringCache<EngineKey, String> byEngine;
+  private final ExpiringCache<CategoryKey, String> byCategory;
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public static TaxResolutionCache getInstance() {
+    return INSTANCE;
+  }
+
+  private TaxResolutionCache() {
+    enabled = OcwsProperties.getBoolean("ocws.taxCache.enabled", true);
+    long ttlMillis = OcwsProperties.getLong("ocws.taxCache.ttl", 600) * 1000L;
+    int maxEntries = OcwsProperties.getInt("ocws.taxCache.maxEntries", 10000);
+    byRate = new ExpiringCache<>(ttlMillis, maxEntries);
+    byEngine = new ExpiringCache<>(ttlMillis, maxEntries);
+    byCategory = new ExpiringCache<>(ttlMillis, maxEntries);
+    MBeanRegistry.registerMBean("OCWSTaxResolutionCache", this);
+  }
+
+  /** Token to pass to the put methods, so values read before an invalidation are discarded. */
+  long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Returns the cached tax id, {@code ""} if it is cached that there is no tax, or {@code null}
+   * if the key is not cached.
+   */
+  String get(RateKey key) {
+    return count(enabled ? byRate.get(key) : null);
+  }
+
+  String get(EngineKey key) {
+    return count(enabled ? byEngine.get(key) : null);
+  }
+
+  String get(CategoryKey key) {
+    return count(enabled ? byCategory.get(key) : null);
+  }
+
+  void put(RateKey key, String taxId, long readGeneration) {
+    if (enabled && readGeneration == generation.get()) {
+      byRate.put(key, taxId == null ? NO_TAX : taxId);
+    }
+  }
+
+  void put(EngineKey key, String taxId, long readGeneration) {
+    if (enabled && readGeneration == generation.get()) {
+      byEngine.put(key, taxId == null ? NO_TAX : taxId);
+    }
+  }
+
+  void put(CategoryKey key, String taxId, long readGeneration) {
+    if (enabled && readGeneration == generation.get()) {
+      byCategory.put(key, taxId == null ? NO_TAX : taxId);
+    }
+  }
+
+  /** Drops the tax engine results of a product. */
+  public void evictProduct(String productId) {
+    generation.incrementAndGet();
+    byEngine.removeIf(key -> key.productId.equals(productId));
+  }
+
+  @Override
+  public void clear() {
+    generation.incrementAndGet();
+    byRate.clear();
+    byEngine.clear();
+    byCategory.clear();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long total = hits.get() + misses.get();
+    return total == 0 ? 0 : (double) hits.get() / total;
+  }
+
+  @Override
+  public int getSize() {
+    return byRate.size() + byEngine.size() + byCategory.size();
+  }
+
+  @Override
+  public void resetCounters() {
+    hits.set(0);
+    misses.set(0);
+  }
+
+  private String count(String value) {
+    (value == null ? misses : hits).incrementAndGet();
+    return value;
+  }
+
+  static final class RateKey {
+    private final BigDecimal rate;
+    private final String clientId;
+    private final String orgId;
+
+    /** The rate is compared by value, 21 and 21.00 are the same key. */
+    RateKey(BigDecimal rate, String clientId, String orgId) {
+      this.rate = rate.stripTrailingZeros();
+      this.clientId = clientId;
+      this.orgId = orgId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof RateKey)) {
+        return false;
+      }
+      RateKey other = (RateKey) o;
+      return rate.equals(other.rate) && clientId.equals(other.clientId)
+          && orgId.equals(other.orgId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(rate, clientId, orgId);
+    }
+  }
+
+  static final class EngineKey {
+    private final String productId;
+    private final String orgId;
+    private final String warehouseId;
+    private final String billToLocationId;
+    private final String locationId;
+    private final String projectId;
+    private final String date;
+    private final boolean salesTransaction;
+
+    EngineKey(String productId, String orgId, String warehouseId, String billToLocationId,
+        String locationId, String projectId, String date, boolean salesTransaction) {
+      this.productId = productId;
+      this.orgId = orgId;
+      this.warehouseId = warehouseId;
+      this.billToLocationId = billToLocationId;
+      this.locationId = locationId;
+      this.projectId = projectId;
+      this.date = date;
+      this.salesTransaction = salesTransaction;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof EngineKey)) {
+        return false;
+      }
+      EngineKey other = (EngineKey) o;
+      return productId.equals(other.productId) && orgId.equals(other.orgId)
+          && warehouseId.equals(other.warehouseId)
+          && billToLocationId.equals(other.billToLocationId)
+          && locationId.equals(other.locationId) && projectId.equals(other.projectId)
+          && date.equals(other.date) && salesTransaction == other.salesTransaction;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(productId, orgId, warehouseId, billToLocationId, locationId, projectId,
+          date, salesTransaction);
+    }
+  }
+
+  static final class CategoryKey {
+    private final String taxCategoryId;
+    private final String clientId;
+    private final String orgId;
+
+    CategoryKey(String taxCategoryId, String clientId, String orgId) {
+      this.taxCategoryId = taxCategoryId;
+      this.clientId = clientId;
+      this.orgId = orgId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CategoryKey)) {
+        return false;
+      }
+      CategoryKey other = (CategoryKey) o;
+      return taxCategoryId.equals(other.taxCategoryId) && clientId.equals(other.clientId)
+          && orgId.equals(other.orgId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(taxCategoryId, clientId, orgId);
+    }
+  }
+}
@@ -15,5 +15,12 @@ import org.codehaus.jettison.json.JSONObject;
  */
 public interface ExternalEnvelopeTransform {
 
+  /**
+   * Envelope field set by SaveOrder when the queued payload is already in the internal shape
+   * ({@code messageId}, {@code channel}, {@code appName}, {@code pos}, {@code data[]}), so it does
+   * not need to be reshaped or copied.
+   */
+  String NORMALIZED = "normalized";
+
   JSONObject onInboundEnvelope(JSONObject envelope) throws JSONException;
 }
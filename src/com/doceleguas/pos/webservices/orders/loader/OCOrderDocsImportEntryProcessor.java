@@ -0,0 +1,40 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orders.loader;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.openbravo.service.importprocess.ImportEntry;
+import org.openbravo.service.importprocess.ImportEntryManager.ImportEntryQualifier;
+import org.openbravo.service.importprocess.ImportEntryProcessor;
+import org.openbravo.service.importprocess.ImportEntryProcessor.ImportEntryProcessRunnable;
+
+/**
+ * Processes {@value OCOrderImportConstants#DOCUMENTS_TYPE_OF_DATA} import entries, which create
+ * the shipment and invoice of orders imported with {@code ocws.orderImport.deferDocuments}.
+ * Entries are processed in parallel by organization.
+ */
+@ImportEntryQualifier(entity = OCOrderImportConstants.DOCUMENTS_TYPE_OF_DATA)
+@ApplicationScoped
+public class OCOrderDocsImportEntryProcessor extends ImportEntryProcessor {
+
+  @Override
+  protected ImportEntryProcessRunnable createImportEntryProcessRunnable() {
+    return new OCOrderDocsImportRunnable();
+  }
+
+  @Override
+  protected boolean canHandleImportEntry(ImportEntry importEntryInformation) {
+    return OCOrderImportConstants.DOCUMENTS_TYPE_OF_DATA
+        .equals(importEntryInformation.getTypeofdata());
+  }
+
+  @Override
+  protected String getProcessSelectionKey(ImportEntry importEntry) {
+    return importEntry.getOrganization().getId();
+  }
+}
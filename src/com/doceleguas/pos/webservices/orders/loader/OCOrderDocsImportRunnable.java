@@ -0,0 +1,66 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orders.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.base.weld.WeldUtils;
+import org.openbravo.dal.core.SessionHandler;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.service.importprocess.ImportEntry;
+import org.openbravo.service.importprocess.ImportEntryManager;
+import org.openbravo.service.importprocess.ImportEntryProcessor.ImportEntryProcessRunnable;
+
+import com.doceleguas.pos.webservices.orderload.impl.CoreOrderPersistenceAdapter;
+
+/**
+ * Runnable executed by {@link OCOrderDocsImportEntryProcessor}: creates the documents of one order
+ * and marks the entry processed, in one transaction. The order row is locked first, so the
+ * documents are not created while another import of the same order is running.
+ */
+public class OCOrderDocsImportRunnable extends ImportEntryProcessRunnable {
+
+  private static final java.util.logging.Logger log = java.util.logging.Logger
+      .getLogger(OCOrderDocsImportRunnable.class.getName());
+
+  private static final String LOCK_ENTRY_SQL = "select c_import_entry_id from c_import_entry"
+      + " where c_import_entry_id = ? and importstatus = 'Initial' for update skip locked";
+  private static final String LOCK_ORDER_SQL = "select c_order_id from c_order"
+      + " where c_order_id = ? for update";
+
+  @Override
+  protected void processEntry(ImportEntry importEntry) throws Exception {
+    Connection conn = OBDal.getInstance().getConnection();
+    if (!lock(conn, LOCK_ENTRY_SQL, importEntry.getId())) {
+      log.fine("OCOrderDocs import entry " + importEntry.getId()
+          + " no longer ready or being imported by another thread, skipping");
+      return;
+    }
+    JSONObject documents = new JSONObject(importEntry.getJsonInfo());
+    lock(conn, LOCK_ORDER_SQL, documents.getString("orderId"));
+
+    WeldUtils.getInstanceFromStaticBeanManager(CoreOrderPersistenceAdapter.class)
+        .createDeferredDocuments(documents);
+
+    ImportEntryManager.getInstance().setImportEntryProcessed(importEntry.getId());
+    if (SessionHandler.isSessionHandlerPresent()) {
+      OBDal.getInstance().commitAndClose();
+    }
+  }
+
+  private static boolean lock(Connection conn, String sql, String id) throws Exception {
+    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+      ps.setString(1, id);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next();
+      }
+    }
+  }
+}
@@ -16,4 +16,10 @@ public final class OCOrderImportConstants {
 
   /** Value of {@code C_IMPORT_ENTRY.TYPEOFDATA} and {@code ImportEntryBuilder} type argument. */
   public static final String TYPE_OF_DATA = "OCWS_Order";
+
+  /**
+   * Type of the entries that create the shipment and invoice of an order imported with
+   * {@code ocws.orderImport.deferDocuments}.
+   */
+  public static final String DOCUMENTS_TYPE_OF_DATA = "OCWS_OrderDocs";
 }
@@ -16,7 +16,8 @@ import org.openbravo.service.importprocess.ImportEntryProcessor.ImportEntryProce
 /**
  * Processes {@value OCOrderImportConstants#TYPE_OF_DATA} import entries via
  * {@link com.doceleguas.pos.webservices.orderload.OcreOrderLoadOrchestrator} using the
- * native SaveOrder pipeline.
+ * native SaveOrder pipeline. Entries are processed in parallel by lane, see
+ * {@link OCOrderImportLanes}.
  */
 @ImportEntryQualifier(entity = OCOrderImportConstants.TYPE_OF_DATA)
 @ApplicationScoped
@@ -34,6 +35,7 @@ public class OCOrderImportEntryProcessor extends ImportEntryProcessor {
 
   @Override
   protected String getProcessSelectionKey(ImportEntry importEntry) {
-    return importEntry.getOrganization().getId();
+    return OCOrderImportLanes.getLaneKey(importEntry.getOrganization().getId(),
+        importEntry.getJsonInfo());
   }
 }
@@ -0,0 +1,183 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orders.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.dal.service.OBDal;
+
+import com.doceleguas.pos.webservices.orderload.OrderFlowType;
+import com.doceleguas.pos.webservices.orderload.OrderFlowUtils;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Lanes of the {@value OCOrderImportConstants#TYPE_OF_DATA} queue: entries with the same lane key
+ * are imported one after the other, in order, and different lanes run in parallel.
+ *
+ * The lane is chosen with {@code ocws.orderImport.laneKey}:
+ * <ul>
+ * <li>{@code organization} (default): one lane per organization.</li>
+ * <li>{@code terminal}: one lane per terminal, keeping the order of its document sequences and
+ * cashup.</li>
+ * <li>{@code terminalAndDocument}: as {@code terminal}, but every layaway document number has a
+ * lane of its own so its instalments do not wait for the rest of the terminal tickets.</li>
+ * </ul>
+ *
+ * With lanes narrower than the organization, importing an entry first takes transaction advisory
+ * locks on the terminal, the cashup and the order it touches, so two lanes never update the same
+ * terminal document sequences, cashup or order at the same time. The locks give mutual exclusion,
+ * not order. The terminal lock serializes the layaway lanes of {@code terminalAndDocument} with
+ * the lane of their terminal while they import, since both raise the last document numbers of
+ * the terminal.
+ */
+public final class OCOrderImportLanes {
+
+  static final String ORGANIZATION = "organization";
+  static final String TERMINAL = "terminal";
+  static final String TERMINAL_AND_DOCUMENT = "terminalAndDocument";
+
+  private static final String LANE_KEY = OcwsProperties.getString("ocws.orderImport.laneKey",
+      ORGANIZATION);
+  private static final String LOCK_SQL = "select pg_advisory_xact_lock(hashtext(?))";
+  private static final String SET_TERMINAL_SQL = "insert into ocws_import_terminal"
+      + " (ocws_import_terminal_id, ad_client_id, ad_org_id, isactive, created, createdby,"
+      + " updated, updatedby, terminal_key)"
+      + " select c_import_entry_id, ad_client_id, ad_org_id, 'Y', created, createdby, now(),"
+      + " updatedby, ? from c_import_entry where c_import_entry_id = ?";
+  private static final String REMOVE_TERMINAL_SQL = "delete from ocws_import_terminal"
+      + " where ocws_import_terminal_id = ?";
+
+  private OCOrderImportLanes() {
+  }
+
+  /** Whether every organization is a single lane, so no guard locks are needed. */
+  static boolean isOrganizationLane() {
+    return !TERMINAL.equals(LANE_KEY) && !TERMINAL_AND_DOCUMENT.equals(LANE_KEY);
+  }
+
+  /** Lane of an entry: the organization, or the organization plus the lane of the payload. */
+  static String getLaneKey(String orgId, String jsonInfo) {
+    if (isOrganizationLane()) {
+      return orgId;
+    }
+    JSONObject envelope = parse(jsonInfo);
+    JSONObject order = getOrder(envelope);
+    String terminal = OrderFlowUtils.getTerminal(envelope);
+    if (terminal == null) {
+      return orgId;
+    }
+    StringBuilder key = new StringBuilder(orgId).append('|').append(terminal);
+    if (TERMINAL_AND_DOCUMENT.equals(LANE_KEY) && order != null
+        && OrderFlowUtils.classify(order) == OrderFlowType.LAYAWAY
+        && StringUtils.isNotBlank(order.optString("documentNo", ""))) {
+      key.append('|').append(order.optString("documentNo"));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Stores the terminal of a new entry in {@code OCWS_IMPORT_TERMINAL}, where batches of a
+   * terminal lane look for the next entries of the lane. The entry must have been flushed. The row
+   * is removed when the entry is processed, and with the entry when it is archived or deleted.
+   */
+  public static void setEntryTerminal(String importEntryId, JSONObject envelope)
+      throws Exception {
+    String terminal = OrderFlowUtils.getTerminal(envelope);
+    if (terminal == null) {
+      return;
+    }
+    try (PreparedStatement ps = OBDal.getInstance()
+        .getConnection(false)
+        .prepareStatement(SET_TERMINAL_SQL)) {
+      ps.setString(1, terminal);
+      ps.setString(2, importEntryId);
+      ps.executeUpdate();
+    }
+  }
+
+  /** Removes the terminals of processed entries, keeping the lane lookups on pending entries. */
+  static void removeEntryTerminals(Connection conn, Collection<String> importEntryIds)
+      throws Exception {
+    try (PreparedStatement ps = conn.prepareStatement(REMOVE_TERMINAL_SQL)) {
+      for (String importEntryId : importEntryIds) {
+        ps.setString(1, importEntryId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+  }
+
+  /** Terminal search key of the payload, or null if it has none. */
+  static String getTerminal(String jsonInfo) {
+    return OrderFlowUtils.getTerminal(parse(jsonInfo));
+  }
+
+  /** Keys of the guard locks needed to import an entry. Empty with organization lanes. */
+  static Set<String> getGuardKeys(String orgId, JSONObject envelope) {
+    Set<String> keys = new TreeSet<>();
+    if (isOrganizationLane()) {
+      return keys;
+    }
+    String terminal = OrderFlowUtils.getTerminal(envelope);
+    if (terminal != null) {
+      keys.add("ocws-terminal|" + orgId + "|" + terminal);
+    }
+    JSONArray data = envelope != null ? envelope.optJSONArray("data") : null;
+    for (int i = 0; data != null && i < data.length(); i++) {
+      JSONObject order = data.optJSONObject(i);
+      if (order == null) {
+        continue;
+      }
+      JSONObject cashup = order.optJSONObject("cashUpReportInformation");
+      if (cashup != null && StringUtils.isNotBlank(cashup.optString("id", ""))) {
+        keys.add("ocws-cashup|" + cashup.optString("id"));
+      }
+      if (StringUtils.isNotBlank(order.optString("documentNo", ""))) {
+        keys.add("ocws-order|" + orgId + "|" + order.optString("documentNo"));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Takes the guard locks, released when the transaction ends. They are taken in key order so two
+   * transactions locking the same keys do not deadlock.
+   */
+  static void lockGuards(Connection conn, Collection<String> keys) throws Exception {
+    if (keys.isEmpty()) {
+      return;
+    }
+    try (PreparedStatement ps = conn.prepareStatement(LOCK_SQL)) {
+      for (String key : new TreeSet<>(keys)) {
+        ps.setString(1, key);
+        ps.execute();
+      }
+    }
+  }
+
+  private static JSONObject parse(String jsonInfo) {
+    try {
+      return jsonInfo != null ? new JSONObject(jsonInfo) : null;
+    } catch (JSONException e) {
+      // Invalid payloads fail later, when imported
+      return null;
+    }
+  }
+
+  private static JSONObject getOrder(JSONObject envelope) {
+    JSONArray data = envelope != null ? envelope.optJSONArray("data") : null;
+    return data != null ? data.optJSONObject(0) : null;
+  }
+}
@@ -6,12 +6,29 @@
  */
 package com.doceleguas.pos.webservices.orders.loader;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.openbravo.base.exception.OBException;
 import org.openbravo.base.weld.WeldUtils;
 import org.openbravo.dal.core.SessionHandler;
 import org.openbravo.dal.service.OBDal;
 import com.doceleguas.pos.webservices.orderload.OcreOrderLoadOrchestrator;
+import com.doceleguas.pos.webservices.orderload.OrderImportMetrics;
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
 import org.openbravo.service.importprocess.ImportEntry;
 import org.openbravo.service.importprocess.ImportEntryManager;
 import org.openbravo.service.importprocess.ImportEntryProcessor.ImportEntryProcessRunnable;
@@ -19,15 +36,379 @@ import org.openbravo.service.json.JsonConstants;
 
 /**
  * Runnable executed by {@link OCOrderImportEntryProcessor#createImportEntryProcessRunnable()}.
+ *
+ * With {@code ocws.orderImport.batchSize} greater than 1, the entry is imported together with the
+ * next ready {@value OCOrderImportConstants#TYPE_OF_DATA} entries of its organization, in one
+ * transaction. The entries are locked with {@code FOR UPDATE SKIP LOCKED}, each one is imported
+ * inside a savepoint so a failing ticket is rolled back alone and set in error, and the imported
+ * ones are marked processed with one batched update. All of them run with the context of the
+ * entry that started the batch, and belong to its lane (see {@link OCOrderImportLanes}). The
+ * entries taken by a batch are skipped when their turn in the queue comes. Like a single import,
+ * a batch holds the session advisory lock of each of its entries until it commits, and drops the
+ * entries whose lock is held by a synchronous SaveOrder. This relies on the
+ * import never committing on its own, which is why the cashup report of a ticket is only flushed
+ * (see {@code CoreOrderPersistenceAdapter#updateCashUpReportIfPresent}).
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.orderImport.batchSize entries imported per transaction (default 1, one transaction
+ * per entry)</li>
+ * </ul>
  */
 public class OCOrderImportRunnable extends ImportEntryProcessRunnable {
 
   private static final java.util.logging.Logger log = java.util.logging.Logger
       .getLogger(OCOrderImportRunnable.class.getName());
 
+  private static final int BATCH_SIZE = Math.max(1,
+      OcwsProperties.getInt("ocws.orderImport.batchSize", 1));
+
+  /** Milliseconds the locked entry waited in the queue, recorded in the import metrics. */
+  private static final String QUEUE_WAIT_COLUMN = ","
+      + " cast(extract(epoch from clock_timestamp() - created) * 1000 as bigint)";
+  private static final String LOCK_ENTRY_SQL = "select c_import_entry_id, jsoninfo"
+      + QUEUE_WAIT_COLUMN
+      + " from c_import_entry where c_import_entry_id = ? and importstatus = 'Initial'"
+      + " for update skip locked";
+  private static final String LOCK_NEXT_ENTRIES_SQL = "select c_import_entry_id, jsoninfo"
+      + QUEUE_WAIT_COLUMN
+      + " from c_import_entry where typeofdata = ? and importstatus = 'Initial'"
+      + " and ad_org_id = ? and c_import_entry_id <> ?"
+      + " order by created, c_import_entry_id limit ? for update skip locked";
+  private static final String NEXT_TERMINAL_ENTRIES_SQL = "select e.c_import_entry_id,"
+      + " e.jsoninfo from ocws_import_terminal t"
+      + " join c_import_entry e on e.c_import_entry_id = t.ocws_import_terminal_id"
+      + " where t.ad_org_id = ? and t.terminal_key = ? and t.ocws_import_terminal_id <> ?"
+      + " and e.typeofdata = ? and e.importstatus = 'Initial'"
+      + " order by e.created, e.c_import_entry_id limit ?";
+  private static final String LOCK_ENTRIES_BY_ID_SQL = "select c_import_entry_id, jsoninfo"
+      + QUEUE_WAIT_COLUMN
+      + " from c_import_entry where c_import_entry_id in (%s) and importstatus = 'Initial'"
+      + " order by created, c_import_entry_id for update skip locked";
+  /**
+   * Session advisory lock on an entry, taken around its import. Unlike the row lock it survives a
+   * commit, so a queue thread and a synchronous import never import the same entry at once.
+   */
+  private static final String TRY_LOCK_ENTRY_SQL = "select pg_try_advisory_lock(hashtext(?))";
+  private static final String UNLOCK_ENTRY_SQL = "select pg_advisory_unlock(hashtext(?))";
+  private static final String SET_PROCESSED_SQL = "update c_import_entry"
+      + " set importstatus = 'Processed', imported = now(), responseinfo = ?, updated = now()"
+      + " where c_import_entry_id = ?";
+
   @Override
   protected void processEntry(ImportEntry importEntry) throws Exception {
-    JSONObject envelope = new JSONObject(importEntry.getJsonInfo());
+    if (BATCH_SIZE > 1) {
+      processBatch(importEntry);
+      return;
+    }
+    if (importEntry(importEntry.getId(), importEntry.getOrganization().getId()) == null) {
+      log.fine("OCOrder import entry " + importEntry.getId()
+          + " no longer ready or being imported by another thread, skipping");
+    }
+  }
+
+  /**
+   * Imports one entry, marks it processed and commits. Returns the import result, or null doing
+   * nothing if the entry is no longer ready or is locked by another thread (a batch or a
+   * synchronous SaveOrder). Throws if the import fails, after rolling back the transaction so
+   * the entry lock can be released.
+   */
+  static JSONObject importEntry(String importEntryId, String orgId) throws Exception {
+    Connection conn = OBDal.getInstance().getConnection();
+    String lockKey = getEntryLockKey(importEntryId);
+    if (!executeLock(conn, TRY_LOCK_ENTRY_SQL, lockKey)) {
+      return null;
+    }
+    JSONObject result;
+    Throwable failure = null;
+    try {
+      Map<String, String> entries = new LinkedHashMap<>();
+      try (PreparedStatement ps = conn.prepareStatement(LOCK_ENTRY_SQL)) {
+        ps.setString(1, importEntryId);
+        readLockedEntries(ps, entries);
+      }
+      String jsonInfo = entries.get(importEntryId);
+      if (jsonInfo == null) {
+        return null;
+      }
+      JSONObject envelope = new JSONObject(jsonInfo);
+      OCOrderImportLanes.lockGuards(conn, OCOrderImportLanes.getGuardKeys(orgId, envelope));
+      result = importEnvelope(importEntryId, envelope);
+
+      ImportEntry toUpdate = OBDal.getInstance().get(ImportEntry.class, importEntryId);
+      if (toUpdate != null) {
+        toUpdate.setResponseinfo(result.toString());
+        OBDal.getInstance().save(toUpdate);
+      }
+
+      ImportEntryManager.getInstance().setImportEntryProcessed(importEntryId);
+      OCOrderImportLanes.removeEntryTerminals(conn, Collections.singletonList(importEntryId));
+      // Committed before the entry lock is released, so the next thread finds it processed
+      OBDal.getInstance().flush();
+      conn.commit();
+    } catch (Throwable t) {
+      failure = t;
+      throw t;
+    } finally {
+      unlockEntries(conn, Collections.singletonList(lockKey), failure);
+    }
+    if (SessionHandler.isSessionHandlerPresent()) {
+      OBDal.getInstance().commitAndClose();
+    }
+    return result;
+  }
+
+  private void processBatch(ImportEntry importEntry) throws Exception {
+    Connection conn = OBDal.getInstance().getConnection();
+    List<String> lockKeys = new ArrayList<>();
+    String lockKey = getEntryLockKey(importEntry.getId());
+    if (!executeLock(conn, TRY_LOCK_ENTRY_SQL, lockKey)) {
+      log.fine("OCOrder import entry " + importEntry.getId()
+          + " being imported by another thread, skipping");
+      return;
+    }
+    lockKeys.add(lockKey);
+    Throwable failure = null;
+    try {
+      importBatch(conn, importEntry, lockKeys);
+      // Committed before the entry locks are released, so the next thread finds them processed
+      OBDal.getInstance().flush();
+      conn.commit();
+    } catch (Throwable t) {
+      failure = t;
+      throw t;
+    } finally {
+      unlockEntries(conn, lockKeys, failure);
+    }
+    if (SessionHandler.isSessionHandlerPresent()) {
+      OBDal.getInstance().commitAndClose();
+    }
+  }
+
+  private void importBatch(Connection conn, ImportEntry importEntry, List<String> lockKeys)
+      throws Exception {
+    Map<String, String> entries = lockEntries(conn, importEntry, lockKeys);
+    if (entries.isEmpty()) {
+      log.fine("OCOrder import entry " + importEntry.getId()
+          + " already taken by another batch, skipping");
+      return;
+    }
+    Map<String, JSONObject> envelopes = new LinkedHashMap<>();
+    Set<String> guardKeys = new HashSet<>();
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      JSONObject envelope = parseEnvelope(entry.getKey(), entry.getValue());
+      envelopes.put(entry.getKey(), envelope);
+      if (envelope != null) {
+        guardKeys.addAll(
+            OCOrderImportLanes.getGuardKeys(importEntry.getOrganization().getId(), envelope));
+      }
+    }
+    OCOrderImportLanes.lockGuards(conn, guardKeys);
+
+    Map<String, String> responses = new LinkedHashMap<>();
+    for (Map.Entry<String, JSONObject> entry : envelopes.entrySet()) {
+      OBDal.getInstance().flush();
+      Savepoint savepoint = conn.setSavepoint();
+      try {
+        if (entry.getValue() == null) {
+          throw new OBException("Invalid json in import entry " + entry.getKey());
+        }
+        JSONObject result = importEnvelope(entry.getKey(), entry.getValue());
+        OBDal.getInstance().flush();
+        conn.releaseSavepoint(savepoint);
+        responses.put(entry.getKey(), result.toString());
+      } catch (Exception e) {
+        conn.rollback(savepoint);
+        // Objects of the failed ticket are still in the session, the ones of the previous
+        // tickets were flushed already
+        OBDal.getInstance().getSession().clear();
+        ImportEntryManager.getInstance().setImportEntryError(entry.getKey(), e);
+        OBDal.getInstance().flush();
+      }
+    }
+
+    if (!responses.isEmpty()) {
+      try (PreparedStatement ps = conn.prepareStatement(SET_PROCESSED_SQL)) {
+        for (Map.Entry<String, String> response : responses.entrySet()) {
+          ps.setString(1, response.getValue());
+          ps.setString(2, response.getKey());
+          ps.addBatch();
+        }
+        ps.executeBatch();
+      }
+      OCOrderImportLanes.removeEntryTerminals(conn, responses.keySet());
+    }
+    log.fine("OCOrder import batch of " + entries.size() + " entries, " + responses.size()
+        + " processed");
+  }
+
+  /**
+   * Locks the entry and up to {@code BATCH_SIZE - 1} ready entries of its lane, returning their
+   * json by id. Empty if the entry is no longer ready or is locked by another batch. The advisory
+   * lock keys of the next entries are added to {@code lockKeys}; entries whose advisory lock is
+   * held by another thread are left out.
+   */
+  private static Map<String, String> lockEntries(Connection conn, ImportEntry importEntry,
+      List<String> lockKeys) throws Exception {
+    Map<String, String> entries = readEntriesToLock(conn, importEntry);
+    Iterator<String> ids = entries.keySet().iterator();
+    while (ids.hasNext()) {
+      String id = ids.next();
+      if (id.equals(importEntry.getId())) {
+        continue;
+      }
+      String lockKey = getEntryLockKey(id);
+      if (executeLock(conn, TRY_LOCK_ENTRY_SQL, lockKey)) {
+        lockKeys.add(lockKey);
+      } else {
+        // Being imported by a synchronous SaveOrder, which will find its row lock taken and
+        // leave it to the queue if it does not import it
+        ids.remove();
+      }
+    }
+    return entries;
+  }
+
+  private static Map<String, String> readEntriesToLock(Connection conn, ImportEntry importEntry)
+      throws Exception {
+    Map<String, String> entries = new LinkedHashMap<>();
+    try (PreparedStatement ps = conn.prepareStatement(LOCK_ENTRY_SQL)) {
+      ps.setString(1, importEntry.getId());
+      readLockedEntries(ps, entries);
+    }
+    if (entries.isEmpty()) {
+      return entries;
+    }
+    String orgId = importEntry.getOrganization().getId();
+    if (OCOrderImportLanes.isOrganizationLane()) {
+      try (PreparedStatement ps = conn.prepareStatement(LOCK_NEXT_ENTRIES_SQL)) {
+        ps.setString(1, OCOrderImportConstants.TYPE_OF_DATA);
+        ps.setString(2, orgId);
+        ps.setString(3, importEntry.getId());
+        ps.setInt(4, BATCH_SIZE - 1);
+        readLockedEntries(ps, entries);
+      }
+      return entries;
+    }
+
+    // Narrower lanes: only entries of the same lane are taken, and only they are locked, since a
+    // locked entry is skipped by the thread of its own lane
+    String terminal = OCOrderImportLanes.getTerminal(importEntry.getJsonInfo());
+    if (terminal == null) {
+      return entries;
+    }
+    String laneKey = OCOrderImportLanes.getLaneKey(orgId, importEntry.getJsonInfo());
+    Map<String, String> candidates = new LinkedHashMap<>();
+    try (PreparedStatement ps = conn.prepareStatement(NEXT_TERMINAL_ENTRIES_SQL)) {
+      ps.setString(1, orgId);
+      ps.setString(2, terminal);
+      ps.setString(3, importEntry.getId());
+      ps.setString(4, OCOrderImportConstants.TYPE_OF_DATA);
+      ps.setInt(5, BATCH_SIZE - 1);
+      readEntries(ps, candidates);
+    }
+    candidates.values()
+        .removeIf(jsonInfo -> !laneKey.equals(OCOrderImportLanes.getLaneKey(orgId, jsonInfo)));
+    if (candidates.isEmpty()) {
+      return entries;
+    }
+    String placeholders = StringUtils.repeat("?", ",", candidates.size());
+    try (PreparedStatement ps = conn.prepareStatement(String.format(LOCK_ENTRIES_BY_ID_SQL,
+        placeholders))) {
+      int index = 1;
+      for (String id : candidates.keySet()) {
+        ps.setString(index++, id);
+      }
+      readLockedEntries(ps, entries);
+    }
+    return entries;
+  }
+
+  private static String getEntryLockKey(String importEntryId) {
+    return "ocws-entry|" + importEntryId;
+  }
+
+  /**
+   * Releases session advisory locks of entries. After a failure the transaction is rolled back
+   * first, since PostgreSQL refuses any statement in an aborted transaction. A failure to roll back
+   * or unlock does not replace the original one.
+   */
+  private static void unlockEntries(Connection conn, List<String> lockKeys, Throwable failure)
+      throws Exception {
+    Exception unlockFailure = null;
+    if (failure != null) {
+      try {
+        conn.rollback();
+      } catch (Exception e) {
+        unlockFailure = e;
+      }
+    }
+    for (String lockKey : lockKeys) {
+      try {
+        executeLock(conn, UNLOCK_ENTRY_SQL, lockKey);
+      } catch (Exception e) {
+        log.severe("OCOrder import could not release the lock " + lockKey + ": "
+            + e.getMessage());
+        if (unlockFailure == null) {
+          unlockFailure = e;
+        } else {
+          unlockFailure.addSuppressed(e);
+        }
+      }
+    }
+    if (unlockFailure == null) {
+      return;
+    }
+    if (failure == null) {
+      throw unlockFailure;
+    }
+    failure.addSuppressed(unlockFailure);
+  }
+
+  private static boolean executeLock(Connection conn, String sql, String key) throws Exception {
+    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+      ps.setString(1, key);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() && rs.getBoolean(1);
+      }
+    }
+  }
+
+  private static void readEntries(PreparedStatement ps, Map<String, String> entries)
+      throws Exception {
+    try (ResultSet rs = ps.executeQuery()) {
+      while (rs.next()) {
+        entries.put(rs.getString(1), rs.getString(2));
+      }
+    }
+  }
+
+  /** Reads entries locked for import, recording the time they waited in the queue. */
+  private static void readLockedEntries(PreparedStatement ps, Map<String, String> entries)
+      throws Exception {
+    try (ResultSet rs = ps.executeQuery()) {
+      while (rs.next()) {
+        entries.put(rs.getString(1), rs.getString(2));
+        OrderImportMetrics.getInstance().recordQueueWait(rs.getLong(3));
+      }
+    }
+  }
+
+  private static JSONObject parseEnvelope(String importEntryId, String jsonInfo) {
+    try {
+      return new JSONObject(jsonInfo);
+    } catch (JSONException e) {
+      log.severe("OCOrder import entry " + importEntryId + " has invalid json: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Imports the envelope of an entry, throwing if the import did not succeed. The envelope is
+   * parsed once per import and may be changed by it.
+   */
+  private static JSONObject importEnvelope(String importEntryId, JSONObject envelope)
+      throws Exception {
     OcreOrderLoadOrchestrator orchestrator = WeldUtils
         .getInstanceFromStaticBeanManager(OcreOrderLoadOrchestrator.class);
     JSONObject result = orchestrator.importEnvelope(envelope);
@@ -36,19 +417,9 @@ public class OCOrderImportRunnable extends ImportEntryProcessRunnable {
     if (status != JsonConstants.RPCREQUEST_STATUS_SUCCESS) {
       String msg = result.optString("message", result.optString(JsonConstants.RESPONSE_ERRORMESSAGE,
           "Order import failed (status=" + status + ")"));
-      log.severe("OCOrder import failed for entry " + importEntry.getId() + ": " + result);
+      log.severe("OCOrder import failed for entry " + importEntryId + ": " + result);
       throw new OBException(msg);
     }
-
-    ImportEntry toUpdate = OBDal.getInstance().get(ImportEntry.class, importEntry.getId());
-    if (toUpdate != null) {
-      toUpdate.setResponseinfo(result.toString());
-      OBDal.getInstance().save(toUpdate);
-    }
-
-    ImportEntryManager.getInstance().setImportEntryProcessed(importEntry.getId());
-    if (SessionHandler.isSessionHandlerPresent()) {
-      OBDal.getInstance().commitAndClose();
-    }
+    return result;
   }
 }
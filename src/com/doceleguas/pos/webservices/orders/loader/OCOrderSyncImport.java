@@ -0,0 +1,177 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+package com.doceleguas.pos.webservices.orders.loader;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.service.importprocess.ImportEntry;
+import org.openbravo.service.importprocess.ImportEntryManager;
+
+import com.doceleguas.pos.webservices.utils.OcwsProperties;
+
+/**
+ * Imports a just created {@value OCOrderImportConstants#TYPE_OF_DATA} entry right away, for
+ * SaveOrder {@code sync=true}, instead of waiting for the import manager.
+ *
+ * The import runs in a worker pool, with the context of the caller, exactly as the queue would
+ * run it: the entry is locked, imported and set to processed or in error. Besides its row lock,
+ * the entry is held with a session advisory lock until its import is committed, so a queue thread
+ * that finds it in the periodic scan skips it. The caller waits up to
+ * the deadline; past it the worker goes on and the caller answers as if the entry had been
+ * queued. When all the workers are busy the entry is handed to the import manager at once, so
+ * request threads do not pile up behind a slow database.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.saveOrder.sync.threads workers, and synchronous imports running at once (default
+ * 4)</li>
+ * <li>ocws.saveOrder.sync.timeout milliseconds the caller waits (default 5000)</li>
+ * </ul>
+ */
+public class OCOrderSyncImport {
+  private static final Logger log = LogManager.getLogger();
+
+  private static final int THREADS = Math.max(1,
+      OcwsProperties.getInt("ocws.saveOrder.sync.threads", 4));
+  private static final long TIMEOUT_MILLIS = OcwsProperties.getLong("ocws.saveOrder.sync.timeout",
+      5000);
+  private static final Semaphore permits = new Semaphore(THREADS);
+  private static final ExecutorService executor = createExecutor();
+
+  public enum Outcome {
+    /** Imported and set to processed. */
+    PROCESSED,
+    /** Import failed, the entry is in error. */
+    FAILED,
+    /** Left to the import manager: no worker free, deadline passed or entry taken. */
+    QUEUED
+  }
+
+  public static class Result {
+    private final Outcome outcome;
+    private final JSONObject response;
+    private final String errorMessage;
+
+    private Result(Outcome outcome, JSONObject response, String errorMessage) {
+      this.outcome = outcome;
+      this.response = response;
+      this.errorMessage = errorMessage;
+    }
+
+    public Outcome getOutcome() {
+      return outcome;
+    }
+
+    /** Import result when processed. */
+    public JSONObject getResponse() {
+      return response;
+    }
+
+    /** Error message when failed. */
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+  }
+
+  private OCOrderSyncImport() {
+  }
+
+  /**
+   * Imports the entry, which must be committed and not yet notified to the import manager. Uses
+   * the user, role and organization of the current context.
+   */
+  public static Result importNow(String importEntryId) {
+    if (!permits.tryAcquire()) {
+      log.debug("No synchronous import worker free for entry {}, queueing", importEntryId);
+      notifyManager(importEntryId);
+      return new Result(Outcome.QUEUED, null, null);
+    }
+    OBContext context = OBContext.getOBContext();
+    final String userId = context.getUser().getId();
+    final String roleId = context.getRole().getId();
+    final String clientId = context.getCurrentClient().getId();
+    final String orgId = context.getCurrentOrganization().getId();
+    Future<Result> future;
+    try {
+      future = executor.submit(() -> {
+        try {
+          return runImport(importEntryId, userId, roleId, clientId, orgId);
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      permits.release();
+      notifyManager(importEntryId);
+      throw e;
+    }
+
+    try {
+      return future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // The worker still holds the entry and will finish it
+      log.info("Synchronous import of entry {} exceeded {} ms, answering as queued",
+          importEntryId, TIMEOUT_MILLIS);
+      return new Result(Outcome.QUEUED, null, null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new Result(Outcome.QUEUED, null, null);
+    } catch (ExecutionException e) {
+      log.error("Synchronous import of entry {} could not run", importEntryId, e.getCause());
+      notifyManager(importEntryId);
+      return new Result(Outcome.QUEUED, null, null);
+    }
+  }
+
+  private static Result runImport(String importEntryId, String userId, String roleId,
+      String clientId, String orgId) {
+    OBContext.setOBContext(userId, roleId, clientId, orgId);
+    try {
+      JSONObject response = OCOrderImportRunnable.importEntry(importEntryId, orgId);
+      OBDal.getInstance().commitAndClose();
+      if (response == null) {
+        return new Result(Outcome.QUEUED, null, null);
+      }
+      return new Result(Outcome.PROCESSED, response, null);
+    } catch (Throwable t) {
+      OBDal.getInstance().rollbackAndClose();
+      ImportEntryManager.getInstance().setImportEntryError(importEntryId, t);
+      OBDal.getInstance().commitAndClose();
+      return new Result(Outcome.FAILED, null, t.getMessage());
+    } finally {
+      OBContext.setOBContext((OBContext) null);
+    }
+  }
+
+  private static void notifyManager(String importEntryId) {
+    ImportEntry importEntry = OBDal.getInstance().get(ImportEntry.class, importEntryId);
+    if (importEntry != null) {
+      ImportEntryManager.getInstance().notifyNewImportEntryCreated(importEntry);
+    }
+  }
+
+  private static ExecutorService createExecutor() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    return Executors.newFixedThreadPool(THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "ocws-saveorder-sync-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Small thread-safe cache with a time to live per entry and an upper bound on the number of
+ * entries. When the bound is reached expired entries are purged first and, if still full, the
+ * oldest entry is dropped. Intended for server side caches that are shared between requests.
+ */
+public class ExpiringCache<K, V> {
+
+  private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final long ttlMillis;
+  private final int maxEntries;
+
+  public ExpiringCache(long ttlMillis, int maxEntries) {
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+  }
+
+  /** Returns the cached value or {@code null} if it is not present or has expired. */
+  public V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.isExpired(System.currentTimeMillis())) {
+      entries.remove(key, entry);
+      return null;
+    }
+    return entry.value;
+  }
+
+  public void put(K key, V value) {
+    if (maxEntries <= 0 || ttlMillis <= 0) {
+      return;
+    }
+    if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+      makeRoom();
+    }
+    entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+  }
+
+  /**
+   * Returns the cached value, computing and caching it when absent. The loader runs outside any
+   * lock, so two concurrent callers may both compute it; the last one wins.
+   */
+  public V get(K key, Function<K, V> loader) {
+    V value = get(key);
+    if (value == null) {
+      value = loader.apply(key);
+      if (value != null) {
+        put(key, value);
+      }
+    }
+    return value;
+  }
+
+  public void remove(K key) {
+    entries.remove(key);
+  }
+
+  /** Removes all the entries whose key matches the given predicate. */
+  public void removeIf(Predicate<K> predicate) {
+    entries.keySet().removeIf(predicate);
+  }
+
+  /** Removes all the entries whose value matches the given predicate. */
+  public void removeValuesIf(Predicate<V> predicate) {
+    entries.values().removeIf(e -> predicate.test(e.value));
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private void makeRoom() {
+    long now = System.currentTimeMillis();
+    entries.values().removeIf(e -> e.isExpired(now));
+    if (entries.size() < maxEntries) {
+      return;
+    }
+    K oldestKey = null;
+    long oldestExpiration = Long.MAX_VALUE;
+    Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<K, Entry<V>> e = it.next();
+      if (e.getValue().expiresAt < oldestExpiration) {
+        oldestExpiration = e.getValue().expiresAt;
+        oldestKey = e.getKey();
+      }
+    }
+    if (oldestKey != null) {
+      entries.remove(oldestKey);
+    }
+  }
+
+  private static class Entry<V> {
+    private final V value;
+    private final long expiresAt;
+
+    private Entry(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.utils;
+
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Reads module tuning settings. A value is looked up in Openbravo.properties first and then as a
+ * JVM system property (-Dkey=value); if neither is set, or it cannot be parsed, the default is
+ * returned.
+ */
+public class OcwsProperties {
+  private static final Logger log = LogManager.getLogger();
+
+  private OcwsProperties() {
+  }
+
+  public static String getString(String key, String defaultValue) {
+    String value = null;
+    try {
+      Properties props = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+      if (props != null) {
+        value = props.getProperty(key);
+      }
+    } catch (Exception e) {
+      log.debug("Openbravo properties not available reading {}", key, e);
+    }
+    if (value == null) {
+      value = System.getProperty(key);
+    }
+    return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+  }
+
+  public static long getLong(String key, long defaultValue) {
+    String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      log.warn("Invalid value '{}' for {}, using {}", value, key, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  public static int getInt(String key, int defaultValue) {
+    return (int) getLong(key, defaultValue);
+  }
+
+  public static boolean getBoolean(String key, boolean defaultValue) {
+    String value = getString(key, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+}
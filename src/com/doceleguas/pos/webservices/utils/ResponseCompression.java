@@ -0,0 +1,124 @@
+/*
+ ************************************************************************************
+ * Copyright (C) 2026 Doceleguas
+ * Licensed under the Openbravo Public License version 1.0
+ ************************************************************************************
+ */
+
+package com.doceleguas.pos.webservices.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Gzip encoding of JSON responses negotiated with the {@code Accept-Encoding} request header.
+ *
+ * Settings (Openbravo.properties or system properties):
+ * <ul>
+ * <li>ocws.compression.enabled (default true)</li>
+ * <li>ocws.compression.minSize bytes below which buffered responses are sent uncompressed
+ * (default 1024)</li>
+ * </ul>
+ */
+public class ResponseCompression {
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final boolean ENABLED = OcwsProperties.getBoolean("ocws.compression.enabled",
+      true);
+  private static final int MIN_SIZE = OcwsProperties.getInt("ocws.compression.minSize", 1024);
+
+  private ResponseCompression() {
+  }
+
+  /** Whether the client accepts gzip, honoring {@code q=0}. */
+  public static boolean acceptsGzip(HttpServletRequest request) {
+    if (!ENABLED) {
+      return false;
+    }
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String element : acceptEncoding.split(",")) {
+      String[] tokens = element.trim().split(";");
+      String coding = tokens[0].trim().toLowerCase();
+      if (!"gzip".equals(coding) && !"*".equals(coding)) {
+        continue;
+      }
+      double quality = 1;
+      for (int i = 1; i < tokens.length; i++) {
+        String token = tokens[i].trim();
+        if (token.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(token.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      return quality > 0;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the writer for a streamed response, compressing it when the client accepts gzip. The
+   * writer must be closed to complete the gzip stream.
+   */
+  public static Writer openWriter(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.addHeader("Vary", "Accept-Encoding");
+    if (!acceptsGzip(request)) {
+      return response.getWriter();
+    }
+    response.setHeader("Content-Encoding", "gzip");
+    return new OutputStreamWriter(new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE),
+        StandardCharsets.UTF_8);
+  }
+
+  /** Writes a complete response body, compressed when it is worth it and the client accepts it. */
+  public static void write(HttpServletRequest request, HttpServletResponse response, String body)
+      throws IOException {
+    response.addHeader("Vary", "Accept-Encoding");
+    if (body.length() < MIN_SIZE || !acceptsGzip(request)) {
+      response.getWriter().write(body);
+      return;
+    }
+    writeGzipped(response, gzip(body.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** Sends a body that is already gzip compressed. */
+  public static void writeGzipped(HttpServletResponse response, byte[] gzipped)
+      throws IOException {
+    response.setHeader("Content-Encoding", "gzip");
+    response.setContentLength(gzipped.length);
+    response.getOutputStream().write(gzipped);
+    response.getOutputStream().flush();
+  }
+
+  public static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+    try (GZIPOutputStream zip = new GZIPOutputStream(out, BUFFER_SIZE)) {
+      zip.write(content);
+    }
+    return out.toByteArray();
+  }
+
+  public static byte[] gunzip(byte[] gzipped) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped), BUFFER_SIZE)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(gzipped.length * 4);
+      in.transferTo(out);
+      return out.toByteArray();
+    }
+  }
+}